@@ -0,0 +1,58 @@
+package bgu.spl.mics;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Runs a task with its own {@link MessageBusImpl}, so several independent systems of
+ * micro-services can live in the same JVM.
+ * <p>
+ * While the task runs, {@link MessageBusImpl#getInstance()} returns the scoped bus on the
+ * calling thread and on every thread it starts, so micro-services created and run from the
+ * task only see each other. Outside of a scope the global bus is returned.
+ * </p>
+ */
+public final class BusScope {
+    private static final InheritableThreadLocal<MessageBusImpl> current = new InheritableThreadLocal<>();
+
+    private BusScope() {
+    }
+
+    /**
+     * Runs {@code task} with a new message-bus.
+     *
+     * @return The result of the task.
+     * @throws Exception if the task threw.
+     */
+    public static <R> R call(Callable<R> task) throws Exception {
+        return call(task, null);
+    }
+
+    /**
+     * Runs {@code task} with a new message-bus that records every message its micro-services
+     * take from their queues to {@code journal}.
+     *
+     * @param journal The journal to record to, null to record nothing.
+     * @return The result of the task.
+     * @throws Exception if the task threw.
+     */
+    public static <R> R call(Callable<R> task, MessageJournal journal) throws Exception {
+        MessageBusImpl previous = current.get();
+        current.set(new MessageBusImpl(journal));
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return The bus of the scope the calling thread runs in, null outside of a scope.
+     */
+    static MessageBusImpl current() {
+        return current.get();
+    }
+}
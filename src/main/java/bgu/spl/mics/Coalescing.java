@@ -0,0 +1,29 @@
+package bgu.spl.mics;
+
+/**
+ * An {@link Event} whose newer instances can be merged into an older instance still waiting
+ * in a micro-service queue, so a slow micro-service does not pile up events that a single
+ * batch can carry.
+ * <p>
+ * When such an event is sent to a micro-service whose queue ends with an event of the same
+ * class, the message-bus offers it to {@link #absorb(Event)} of the queued one instead of
+ * queueing it. An event that other messages were queued behind is not offered any more, so
+ * merging never moves a message ahead of one sent before it. The bus calls {@code absorb}
+ * only while the queued event has not been taken by its receiver yet, so the receiver sees
+ * every merged event. Once the receiver completes
+ * the queued event, the futures of all the events it absorbed are resolved with the same
+ * result.
+ * </p>
+ *
+ * @param <E> The class of the event, newer instances of which are absorbed.
+ */
+public interface Coalescing<E extends Event<?>> {
+
+    /**
+     * Merges {@code newer} into this event.
+     *
+     * @param newer A newer event of the same class, sent to the same micro-service.
+     * @return true if {@code newer} was merged, false to queue it on its own.
+     */
+    boolean absorb(E newer);
+}
@@ -1,62 +1,565 @@
 package bgu.spl.mics;
 
+import bgu.spl.mics.jfr.BroadcastSend;
+import bgu.spl.mics.jfr.EventCompletion;
+import bgu.spl.mics.jfr.EventSend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * The {@link MessageBusImpl class is the implementation of the MessageBus interface.
- * Write your implementation here!
- * Only one public method (in addition to getters which can be public solely for unit testing) may be added to this class
- * All other methods and members you add the class must be private.
+ * The implementation of the {@link MessageBus} interface, one instance per {@link BusScope}.
+ * <p>
+ * Besides the {@link MessageBus} methods, {@link #awaitQuiescence(MicroService)} lets the
+ * TimeService and the journal replay wait until every message was handled, and the getters
+ * report the queues to the metrics and the LiDAR pool. The constructors are package-private for
+ * {@link BusScope}, the other package-private methods for {@link NioBusLink}, and everything
+ * else is private.
+ * </p>
+ * <p>
+ * A message is delivered to the subscribers of its class and of every message superclass and
+ * interface of it, see {@link MessageTypes}.
+ * </p>
+ * <p>
+ * Every message is counted when it is queued and again once it was handled, that is when its
+ * receiver asks for the next message or unregisters. The bus is quiescent when both counts are
+ * equal: every mailbox is empty and every callback returned. See {@link #awaitQuiescence(MicroService)}.
+ * A message handed to the bus of another process by a {@link NioBusLink} is counted as remote
+ * until its result returns, and the bus is not quiescent while it is.
+ * </p>
+ * <p>
+ * No lock is shared by the message types: the subscribers of every type are an immutable array
+ * swapped atomically, and a sender only reads the arrays of the types of its message. A
+ * micro-service unregisters type by type while the others go on sending.
+ * </p>
  */
 public class MessageBusImpl implements MessageBus {
-	
+
+	private final ConcurrentHashMap<MicroService, Mailbox> queues;
+	// the subscribers of every message type, replaced as a whole on every change
+	private final ConcurrentHashMap<Class<?>, AtomicReference<MicroService[]>> subscribers;
+	private final ConcurrentHashMap<Event<?>, Future<?>> futures;
+	private final ConcurrentHashMap<Class<?>, Route> routes; // where the messages of every sent class go
+	// the futures of the events merged into a queued coalescing event
+	private final ConcurrentHashMap<Event<?>, List<Future<?>>> absorbed;
+	private final MessageJournal journal; // records every message taken from a mailbox, null if not journaled
+	private final LongAdder enqueued; // the messages ever queued, counted before they are added to a mailbox
+	private final LongAdder handled; // the messages whose callback returned or that were dropped from a mailbox
+	private final LongAdder remote; // the messages handed to another process whose result has not returned
+	private final ConcurrentLinkedQueue<Thread> quiescenceWaiters; // woken up whenever a message was handled or an event completed
+
+	private static final MicroService[] NONE = new MicroService[0];
+
+	// the queue of a micro-service, and whether it holds a message taken from it whose callback may still run
+	private static final class Mailbox {
+		private final MicroService owner;
+		private final LinkedBlockingQueue<Message> messages;
+		private boolean inHand; // only accessed by the thread of the micro-service
+		private volatile boolean closed; // set once the owner unregistered, messages added after are taken back
+		private final AtomicLong added; // the messages ever added, each counted before it is added
+		// the coalescing event of every class waiting at the tail of the queue, guarded by the map itself
+		private final HashMap<Class<?>, CoalescingSlot> coalescing;
+
+		private Mailbox(MicroService owner) {
+			this.owner = owner;
+			this.messages = new LinkedBlockingQueue<>();
+			this.added = new AtomicLong();
+			this.coalescing = new HashMap<>();
+		}
+	}
+
+	// a coalescing event waiting in a queue, and the number of messages added to the queue up to it
+	private static final class CoalescingSlot {
+		private final Event<?> event;
+		private final long position;
+
+		private CoalescingSlot(Event<?> event, long position) {
+			this.event = event;
+			this.position = position;
+		}
+	}
+
+	// the subscribers of a sent message class, merged from the subscribers of all its message types
+	private static final class Route {
+		private final AtomicReference<MicroService[]>[] sources; // the subscribers of every message type of the class
+		private final AtomicInteger next; // the round-robin position of the next event
+		private volatile MicroService[][] merged; // the source arrays the merge was made of, then the merge
+
+		private Route(AtomicReference<MicroService[]>[] sources) {
+			this.sources = sources;
+			this.next = new AtomicInteger();
+		}
+
+		// the merge is redone once one of its sources was swapped, which only a subscribe or
+		// an unregister of one of the types of the class does
+		private MicroService[] subscribers() {
+			MicroService[][] current = merged;
+			if (current != null && isCurrent(current)) {
+				return current[sources.length];
+			}
+			MicroService[][] updated = new MicroService[sources.length + 1][];
+			LinkedHashSet<MicroService> all = new LinkedHashSet<>();
+			for (int i = 0; i < sources.length; i++) {
+				updated[i] = sources[i].get();
+				all.addAll(Arrays.asList(updated[i]));
+			}
+			updated[sources.length] = sources.length == 1 ? updated[0] : all.toArray(NONE);
+			merged = updated;
+			return updated[sources.length];
+		}
+
+		private boolean isCurrent(MicroService[][] current) {
+			for (int i = 0; i < sources.length; i++) {
+				if (sources[i].get() != current[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// package-private so that BusScope can create a bus per simulation
+	MessageBusImpl() {
+		this(null);
+	}
+
+	// package-private so that BusScope can create a journaled bus
+	MessageBusImpl(MessageJournal journal) {
+		this.journal = journal;
+		queues = new ConcurrentHashMap<>();
+		subscribers = new ConcurrentHashMap<>();
+		futures = new ConcurrentHashMap<>();
+		routes = new ConcurrentHashMap<>();
+		absorbed = new ConcurrentHashMap<>();
+		enqueued = new LongAdder();
+		handled = new LongAdder();
+		remote = new LongAdder();
+		quiescenceWaiters = new ConcurrentLinkedQueue<>();
+	}
+
+	private static class MessageBusHolder {
+		private static final MessageBusImpl instance = new MessageBusImpl();
+	}
+
+	/**
+	 * @return The bus of the {@link BusScope} the calling thread runs in, or the global bus.
+	 */
+	public static MessageBusImpl getInstance() {
+		MessageBusImpl scoped = BusScope.current();
+		return scoped != null ? scoped : MessageBusHolder.instance;
+	}
+
 	@Override
 	public <T> void subscribeEvent(Class<? extends Event<T>> type, MicroService m) {
-		// TODO Auto-generated method stub
-
+		subscribe(type, m);
 	}
 
 	@Override
 	public void subscribeBroadcast(Class<? extends Broadcast> type, MicroService m) {
-		// TODO Auto-generated method stub
-
+		subscribe(type, m);
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> void complete(Event<T> e, T result) {
-		// TODO Auto-generated method stub
-
+		EventCompletion record = new EventCompletion();
+		record.begin();
+		Future<T> future = (Future<T>) futures.remove(e);
+		if (future != null) {
+			future.resolve(result);
+		}
+		List<Future<?>> merged = absorbed.remove(e);
+		if (merged != null) {
+			for (Future<?> f : merged) {
+				((Future<T>) f).resolve(result);
+			}
+		}
+		if (!quiescenceWaiters.isEmpty()) {
+			wakeQuiescenceWaiters();
+		}
+		if (record.shouldCommit()) {
+			record.messageType = e.getClass().getName();
+			record.resolved = future != null;
+			record.commit();
+		}
 	}
 
 	@Override
 	public void sendBroadcast(Broadcast b) {
-		// TODO Auto-generated method stub
-
+		BroadcastSend record = new BroadcastSend();
+		record.begin();
+		int receivers = 0;
+		if (journal != null) {
+			journal.sent(b);
+		}
+		for (MicroService m : route(b.getClass()).subscribers()) {
+			Mailbox queue = queues.get(m);
+			if (queue != null && deliver(queue, b) != 0) {
+				receivers++;
+			}
+		}
+		if (record.shouldCommit()) {
+			record.messageType = b.getClass().getName();
+			record.receivers = receivers;
+			record.commit();
+		}
 	}
 
-	
+
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> Future<T> sendEvent(Event<T> e) {
-		// TODO Auto-generated method stub
-		return null;
+		EventSend record = new EventSend();
+		record.begin();
+		Future<T> future = null;
+		Mailbox queue = pick(route(e.getClass()));
+		if (queue != null) {
+			if (journal != null) {
+				journal.sent(e);
+			}
+			future = new Future<>();
+			if (e instanceof Coalescing) {
+				enqueueCoalescing(queue, e, future);
+			} else {
+				futures.put(e, future);
+				if (deliver(queue, e) == 0) {
+					reroute((Event<Object>) e);
+				}
+			}
+		}
+		if (record.shouldCommit()) {
+			record.messageType = e.getClass().getName();
+			record.receiver = queue == null ? null : queue.owner.getName();
+			record.commit();
+		}
+		return future;
 	}
 
 	@Override
 	public void register(MicroService m) {
-		// TODO Auto-generated method stub
-
+		queues.putIfAbsent(m, new Mailbox(m));
 	}
 
+	/**
+	 * Unregisters a micro-service without stopping the senders: it leaves the subscribers of
+	 * every type one type at a time, then its mailbox is closed and drained. The events left in
+	 * it, and the messages a sender adds to it after it was closed, go to another subscriber of
+	 * their type, or are resolved with null if there is none.
+	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public void unregister(MicroService m) {
-		// TODO Auto-generated method stub
-
+		for (AtomicReference<MicroService[]> subs : subscribers.values()) {
+			removeSubscriber(subs, m);
+		}
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			return;
+		}
+		queue.closed = true;
+		queues.remove(m, queue);
+		synchronized (queue.coalescing) {
+			queue.coalescing.clear();
+		}
+		if (queue.inHand) {
+			queue.inHand = false;
+			handled.increment();
+		}
+		Message message;
+		while ((message = queue.messages.poll()) != null) {
+			if (message instanceof Event) {
+				reroute((Event<Object>) message);
+			}
+			handled.increment();
+		}
+		wakeQuiescenceWaiters();
 	}
 
 	@Override
 	public Message awaitMessage(MicroService m) throws InterruptedException {
-		// TODO Auto-generated method stub
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			throw new IllegalStateException(m.getName() + " is not registered");
+		}
+		if (queue.inHand) {
+			// the callback of the previous message returned
+			queue.inHand = false;
+			handled.increment();
+			if (!quiescenceWaiters.isEmpty()) {
+				wakeQuiescenceWaiters();
+			}
+		}
+		Message message = queue.messages.take();
+		queue.inHand = true;
+		if (message instanceof Coalescing) {
+			// taken events must not absorb any more, their receiver is about to read them
+			synchronized (queue.coalescing) {
+				CoalescingSlot slot = queue.coalescing.get(message.getClass());
+				if (slot != null && slot.event == message) {
+					queue.coalescing.remove(message.getClass());
+				}
+			}
+		}
+		if (journal != null) {
+			// recorded by the receiver, in the order it handles its messages, with the final
+			// content of a coalescing event
+			journal.record(message, m.getName());
+		}
+		return message;
+	}
+
+	/**
+	 * @return The number of messages waiting in the queue of every registered micro-service,
+	 *         keyed by micro-service name.
+	 */
+	public Map<String, Integer> getQueueSizes() {
+		Map<String, Integer> sizes = new LinkedHashMap<>();
+		for (Map.Entry<MicroService, Mailbox> entry : queues.entrySet()) {
+			sizes.put(entry.getKey().getName(), entry.getValue().messages.size());
+		}
+		return sizes;
+	}
+
+	/**
+	 * @return The number of messages of class {@code type} waiting in the queue of {@code m},
+	 *         0 if it is not registered. Walks the queue, the count may be stale once returned.
+	 */
+	public int getQueuedCount(MicroService m, Class<? extends Message> type) {
+		Mailbox queue = queues.get(m);
+		if (queue == null) {
+			return 0;
+		}
+		int count = 0;
+		for (Message message : queue.messages) {
+			if (type.isInstance(message)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Waits until the bus is quiescent: every mailbox is empty and every callback of a taken
+	 * message returned. The message {@code caller} is handling and the messages queued to it do
+	 * not count, so a micro-service may wait from a callback, e.g. until every service is done
+	 * with a tick before sending the next one, even if the other services send it messages.
+	 *
+	 * @param caller The micro-service calling from its callback, or null if called from elsewhere.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void awaitQuiescence(MicroService caller) throws InterruptedException {
+		Mailbox own = caller == null ? null : queues.get(caller);
+		if (isQuiescent(own, true)) {
+			return;
+		}
+		Thread self = Thread.currentThread();
+		quiescenceWaiters.add(self);
+		try {
+			while (!isQuiescent(own, true)) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			quiescenceWaiters.remove(self);
+		}
+	}
+
+	/**
+	 * @return The number of messages queued, being handled, or waiting for their result from
+	 *         another process.
+	 */
+	public long getInFlightCount() {
+		long handledCount = handled.sum();
+		return enqueued.sum() - handledCount + remote.sum();
+	}
+
+	// counts a message handed to another process until releaseRemote, called by the callback
+	// that hands it over, before it returns, see NioBusLink
+	void holdRemote() {
+		remote.increment();
+	}
+
+	// counts the result of a message handed to another process as returned
+	void releaseRemote() {
+		remote.decrement();
+		if (!quiescenceWaiters.isEmpty()) {
+			wakeQuiescenceWaiters();
+		}
+	}
+
+	// wakes up the thread whenever a message was handled or an event completed, until removed, see NioBusLink
+	void addProgressWaiter(Thread waiter) {
+		quiescenceWaiters.add(waiter);
+	}
+
+	void removeProgressWaiter(Thread waiter) {
+		quiescenceWaiters.remove(waiter);
+	}
+
+	// true if every message of this process was handled, whatever the other processes still do
+	boolean isLocallyQuiescent() {
+		return isQuiescent(null, false);
+	}
+
+	// queues a coalescing event, or merges it into the event of its class waiting at the tail of
+	// the queue. A queued event that other messages were added behind is not merged into, so the
+	// receiver never sees a message before one that was sent earlier: a message sent before this
+	// one was counted in added before this one was sent.
+	@SuppressWarnings("unchecked")
+	private void enqueueCoalescing(Mailbox queue, Event<?> e, Future<?> future) {
+		synchronized (queue.coalescing) {
+			CoalescingSlot slot = queue.coalescing.get(e.getClass());
+			if (slot != null && slot.position == queue.added.get()
+					&& ((Coalescing<Event<?>>) slot.event).absorb(e)) {
+				absorbed.computeIfAbsent(slot.event, k -> new ArrayList<>()).add(future);
+				return;
+			}
+			futures.put(e, future);
+			long position = deliver(queue, e);
+			if (position != 0) {
+				queue.coalescing.put(e.getClass(), new CoalescingSlot(e, position));
+				return;
+			}
+		}
+		reroute((Event<Object>) e);
+	}
+
+	// queues a message, or takes it back if its mailbox was closed meanwhile: either the sender
+	// sees the closed flag or the unregistering thread drains the message, and only one of them
+	// gets it out of the queue. Returns the number of messages added to the queue up to this
+	// one, or 0 if it was taken back.
+	private long deliver(Mailbox queue, Message message) {
+		enqueued.increment();
+		long position = queue.added.incrementAndGet();
+		queue.messages.add(message);
+		if (queue.closed && queue.messages.remove(message)) {
+			handled.increment();
+			if (!quiescenceWaiters.isEmpty()) {
+				wakeQuiescenceWaiters();
+			}
+			return 0;
+		}
+		return position;
+	}
+
+	// the open mailbox of the next subscriber of the route in round-robin order, or null if none
+	private Mailbox pick(Route route) {
+		MicroService[] subs = route.subscribers();
+		if (subs.length == 0) {
+			return null;
+		}
+		int start = route.next.getAndIncrement();
+		for (int i = 0; i < subs.length; i++) {
+			Mailbox queue = queues.get(subs[Math.floorMod(start + i, subs.length)]);
+			if (queue != null && !queue.closed) {
+				return queue;
+			}
+		}
 		return null;
 	}
 
-	
+	// hands an event that could not stay with its receiver to another subscriber, keeping its
+	// future, or resolves it with null if no subscriber is left
+	private void reroute(Event<Object> e) {
+		Mailbox queue;
+		while ((queue = pick(route(e.getClass()))) != null) {
+			if (deliver(queue, e) != 0) {
+				return;
+			}
+		}
+		complete(e, null);
+	}
+
+	// handled is read before enqueued: both counts only grow and a message is queued before it is
+	// handled, so equal reads mean they were equal when handled was read
+	private boolean isQuiescent(Mailbox own, boolean withRemote) {
+		// the caller's queue only grows while it waits, so it is read before the counters: a
+		// message queued after this read still counts, and cannot hide a running callback
+		long allowed = own == null ? 0 : own.messages.size() + (own.inHand ? 1 : 0);
+		long handledCount = handled.sum();
+		if (enqueued.sum() - handledCount > allowed) {
+			return false;
+		}
+		// a message is held as remote before the callback handing it over returns, so once that
+		// callback was counted as handled the hold is seen here
+		return !withRemote || remote.sum() == 0;
+	}
+
+	private void wakeQuiescenceWaiters() {
+		for (Thread waiter : quiescenceWaiters) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	private void subscribe(Class<? extends Message> type, MicroService m) {
+		AtomicReference<MicroService[]> subs = subscribersOf(type);
+		MicroService[] current;
+		MicroService[] updated;
+		do {
+			current = subs.get();
+			if (Arrays.asList(current).contains(m)) {
+				return;
+			}
+			updated = Arrays.copyOf(current, current.length + 1);
+			updated[current.length] = m;
+		} while (!subs.compareAndSet(current, updated));
+	}
+
+	private static void removeSubscriber(AtomicReference<MicroService[]> subs, MicroService m) {
+		MicroService[] current;
+		MicroService[] updated;
+		do {
+			current = subs.get();
+			int index = Arrays.asList(current).indexOf(m);
+			if (index < 0) {
+				return;
+			}
+			updated = new MicroService[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, index);
+			System.arraycopy(current, index + 1, updated, index, updated.length - index);
+		} while (!subs.compareAndSet(current, updated));
+	}
+
+	private AtomicReference<MicroService[]> subscribersOf(Class<?> type) {
+		AtomicReference<MicroService[]> subs = subscribers.get(type);
+		return subs != null ? subs : subscribers.computeIfAbsent(type, k -> new AtomicReference<>(NONE));
+	}
+
+	/**
+	 * Returns the route of a message of class {@code type}: to the subscribers of {@code type}
+	 * and of all its message superclasses and interfaces.
+	 * After the first message of a class this is a single map lookup.
+	 */
+	@SuppressWarnings("unchecked")
+	private Route route(Class<?> type) {
+		Route route = routes.get(type);
+		if (route != null) {
+			return route;
+		}
+		return routes.computeIfAbsent(type, t -> {
+			List<Class<?>> types = MessageTypes.of(t);
+			AtomicReference<MicroService[]>[] sources =
+					(AtomicReference<MicroService[]>[]) new AtomicReference<?>[types.size()];
+			for (int i = 0; i < sources.length; i++) {
+				sources[i] = subscribersOf(types.get(i));
+			}
+			return new Route(sources);
+		});
+	}
 
 }
@@ -0,0 +1,42 @@
+package bgu.spl.mics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Encodes the messages of an application to a compact binary form and back, so they can
+ * be written to a {@link MessageJournal}.
+ */
+public interface MessageCodec {
+
+    /**
+     * @param m The message to encode.
+     * @return A tag between 0 and 255 identifying the type of {@code m}, or -1 if this
+     *         codec cannot encode it.
+     */
+    int tagOf(Message m);
+
+    /**
+     * @param type A message type.
+     * @return true if every message of {@code type} or of a subtype of it has a tag.
+     */
+    boolean encodes(Class<? extends Message> type);
+
+    /**
+     * Writes the payload of {@code m}, whose tag is {@link #tagOf(Message)}.
+     */
+    void encode(Message m, DataOutput out) throws IOException;
+
+    /**
+     * Reads a message written by {@link #encode(Message, DataOutput)}.
+     *
+     * @param tag The tag of the message.
+     */
+    Message decode(int tag, DataInput in) throws IOException;
+
+    /**
+     * @return The tick {@code m} announces if it is the application's tick message, -1 otherwise.
+     */
+    int tickOf(Message m);
+}
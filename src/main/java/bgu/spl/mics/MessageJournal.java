@@ -0,0 +1,228 @@
+package bgu.spl.mics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * An append-only binary log of the messages dispatched by a {@link MessageBusImpl}, see
+ * {@link BusScope#call(java.util.concurrent.Callable, MessageJournal)}.
+ * <p>
+ * A message is recorded when its receiver takes it from its queue, so the entries of every
+ * receiver are in the exact order it handled its messages, a broadcast is recorded once per
+ * receiver, and a coalescing event is recorded once, with every event it absorbed.
+ * Every entry holds the tick the message was received at, its sender, its receiver and its
+ * payload as encoded by a {@link MessageCodec}. Sender and receiver names are written once
+ * and then referred to by index. The tick is the last tick announced by a recorded message
+ * for which {@link MessageCodec#tickOf(Message)} is not -1.
+ * </p>
+ * Entry layout: {@code int tick, name sender, name receiver, byte tag, int length, byte[length] payload},
+ * where a name is a {@code short} index, preceded on first use by a negative
+ * {@code short -(index + 1)} and the name in modified UTF-8.
+ */
+public class MessageJournal implements Closeable {
+    private static final int MAGIC = 0x4A524E4C; // "JRNL"
+
+    private static final ThreadLocal<String> currentSender = new ThreadLocal<>();
+
+    private final MessageCodec codec;
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> names = new HashMap<>();
+    private final WeakHashMap<Message, String> senders = new WeakHashMap<>(); // the senders of the messages not received yet
+    private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    private final DataOutputStream payloadOut = new DataOutputStream(payload);
+    private int tick;
+    private long entries;
+
+    /**
+     * Creates a new journal file, overwriting an existing one.
+     *
+     * @param filePath The path of the journal file.
+     * @param codec    The codec of the messages to record.
+     */
+    public MessageJournal(String filePath, MessageCodec codec) throws IOException {
+        this.codec = codec;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16));
+        out.writeInt(MAGIC);
+    }
+
+    /**
+     * Marks the calling thread as running the micro-service {@code name}, which is recorded
+     * as the sender of the messages it sends.
+     */
+    static void setCurrentSender(String name) {
+        currentSender.set(name);
+    }
+
+    /**
+     * Notes the micro-service of the calling thread as the sender of {@code m}, to record
+     * once {@code m} is received.
+     */
+    synchronized void sent(Message m) {
+        String sender = currentSender.get();
+        if (sender != null && codec.tagOf(m) >= 0) {
+            senders.put(m, sender);
+        }
+    }
+
+    /**
+     * Appends a received message to the journal. Messages the codec cannot encode are skipped.
+     *
+     * @param receiver The micro-service that took the message from its queue.
+     */
+    synchronized void record(Message m, String receiver) {
+        int tag = codec.tagOf(m);
+        if (tag < 0) {
+            return;
+        }
+        int announced = codec.tickOf(m);
+        if (announced >= 0) {
+            tick = announced;
+        }
+        // a broadcast is received once per subscriber, its sender is kept until it is collected
+        String sender = m instanceof Broadcast ? senders.get(m) : senders.remove(m);
+        try {
+            payload.reset();
+            codec.encode(m, payloadOut);
+            out.writeInt(tick);
+            writeName(sender == null ? "" : sender);
+            writeName(receiver);
+            out.writeByte(tag);
+            out.writeInt(payload.size());
+            payload.writeTo(out);
+            entries++;
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write to the message journal", e);
+        }
+    }
+
+    /**
+     * @return The number of entries appended so far.
+     */
+    public synchronized long getEntries() {
+        return entries;
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeName(String name) throws IOException {
+        Integer index = names.get(name);
+        if (index == null) {
+            index = names.size();
+            names.put(name, index);
+            out.writeShort(-(index + 1));
+            out.writeUTF(name);
+        }
+        out.writeShort(index);
+    }
+
+    /**
+     * An entry read back from a journal.
+     */
+    public static class Entry {
+        private final int tick;
+        private final String sender;
+        private final String receiver;
+        private final Message message;
+
+        private Entry(int tick, String sender, String receiver, Message message) {
+            this.tick = tick;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.message = message;
+        }
+
+        public int getTick() {
+            return tick;
+        }
+
+        public String getSender() {
+            return sender;
+        }
+
+        /**
+         * @return The micro-service that took the message from its queue.
+         */
+        public String getReceiver() {
+            return receiver;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * Reads the entries of a journal file in the order they were appended.
+     */
+    public static class Reader implements Closeable {
+        private final MessageCodec codec;
+        private final DataInputStream in;
+        private final ArrayList<String> names = new ArrayList<>();
+
+        public Reader(String filePath, MessageCodec codec) throws IOException {
+            this.codec = codec;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(filePath), 1 << 16));
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException(filePath + " is not a message journal");
+            }
+        }
+
+        /**
+         * @return The next entry, or null at the end of the journal or at an entry cut short,
+         *         e.g. by a crash of the recording run.
+         */
+        public Entry next() throws IOException {
+            int tick;
+            String sender;
+            String receiver;
+            int tag;
+            byte[] bytes;
+            try {
+                tick = in.readInt();
+                sender = readName();
+                receiver = readName();
+                tag = in.readUnsignedByte();
+                bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+            } catch (EOFException e) {
+                return null;
+            }
+            Message message = codec.decode(tag, new DataInputStream(new ByteArrayInputStream(bytes)));
+            return new Entry(tick, sender, receiver, message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String readName() throws IOException {
+            short index = in.readShort();
+            if (index < 0) {
+                names.add(in.readUTF());
+                index = in.readShort();
+            }
+            return names.get(index);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package bgu.spl.mics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the message types a message class can be subscribed by: the class itself and
+ * every superclass and interface of it that is a {@link Message}.
+ * Also numbers the message classes densely, so per-class data can be kept in arrays.
+ */
+final class MessageTypes {
+    private static final AtomicInteger nextId = new AtomicInteger();
+    private static final ClassValue<Integer> ids = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return nextId.getAndIncrement();
+        }
+    };
+
+    private MessageTypes() {
+    }
+
+    /**
+     * @return The message types of {@code type}, most specific first: {@code type}, then its
+     *         direct superclass and interfaces, then theirs, and so on.
+     */
+    static List<Class<?>> of(Class<?> type) {
+        LinkedHashSet<Class<?>> types = new LinkedHashSet<>();
+        ArrayDeque<Class<?>> toVisit = new ArrayDeque<>();
+        toVisit.add(type);
+        while (!toVisit.isEmpty()) {
+            Class<?> t = toVisit.poll();
+            if (!Message.class.isAssignableFrom(t) || !types.add(t)) {
+                continue;
+            }
+            if (t.getSuperclass() != null) {
+                toVisit.add(t.getSuperclass());
+            }
+            for (Class<?> i : t.getInterfaces()) {
+                toVisit.add(i);
+            }
+        }
+        return new ArrayList<>(types);
+    }
+
+    /**
+     * @return The ID of {@code type}: 0 for the first class asked for, 1 for the next one, and
+     *         so on. After the first call for a class this neither locks nor allocates.
+     */
+    static int idOf(Class<?> type) {
+        return ids.get(type);
+    }
+}
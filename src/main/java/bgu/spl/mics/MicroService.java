@@ -1,5 +1,11 @@
 package bgu.spl.mics;
 
+import bgu.spl.mics.jfr.CallbackExecution;
+import jdk.jfr.EventType;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
 /**
  * The MicroService is an abstract class that any micro-service in the system
  * must extend. The abstract MicroService class is responsible to get and
@@ -20,8 +26,17 @@ package bgu.spl.mics;
  */
 public abstract class MicroService implements Runnable {
 
+    private static final Callback<Message> NO_CALLBACK = message -> {
+    };
+    private static final EventType CALLBACK_EXECUTION = EventType.getEventType(CallbackExecution.class);
+
     private boolean terminated = false;
     private final String name;
+    private final MessageBus bus = MessageBusImpl.getInstance();
+    private final HashMap<Class<? extends Message>, Callback<? extends Message>> callbacks = new HashMap<>();
+    // the callback of every received message class by class ID (see MessageTypes#idOf), the callback of its
+    // most specific subscribed type, NO_CALLBACK if there is none and null if not resolved yet
+    private Callback<Message>[] dispatch = newDispatchTable(16);
 
     /**
      * @param name the micro-service name (used mainly for debugging purposes -
@@ -39,7 +54,8 @@ public abstract class MicroService implements Runnable {
      * 2. Store the {@code callback} so that when events of type {@code type}
      * are received it will be called.
      * <p>
-     * For a received message {@code m} of type {@code type = m.getClass()}
+     * For a received message {@code m} whose class is {@code type} or a subtype
+     * of it (unless a more specific type was subscribed too)
      * calling the callback {@code callback} means running the method
      * {@link Callback#call(java.lang.Object)} by calling
      * {@code callback.call(m)}.
@@ -53,7 +69,9 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <T, E extends Event<T>> void subscribeEvent(Class<E> type, Callback<E> callback) {
-        //TODO: implement this.
+        callbacks.put(type, callback);
+        Arrays.fill(dispatch, null);
+        bus.subscribeEvent(type, this);
     }
 
     /**
@@ -64,7 +82,8 @@ public abstract class MicroService implements Runnable {
      * 2. Store the {@code callback} so that when broadcast messages of type
      * {@code type} received it will be called.
      * <p>
-     * For a received message {@code m} of type {@code type = m.getClass()}
+     * For a received message {@code m} whose class is {@code type} or a subtype
+     * of it (unless a more specific type was subscribed too)
      * calling the callback {@code callback} means running the method
      * {@link Callback#call(java.lang.Object)} by calling
      * {@code callback.call(m)}.
@@ -77,7 +96,9 @@ public abstract class MicroService implements Runnable {
      *                 queue.
      */
     protected final <B extends Broadcast> void subscribeBroadcast(Class<B> type, Callback<B> callback) {
-        //TODO: implement this.
+        callbacks.put(type, callback);
+        Arrays.fill(dispatch, null);
+        bus.subscribeBroadcast(type, this);
     }
 
     /**
@@ -93,8 +114,7 @@ public abstract class MicroService implements Runnable {
      * 	       			null in case no micro-service has subscribed to {@code e.getClass()}.
      */
     protected final <T> Future<T> sendEvent(Event<T> e) {
-        //TODO: implement this.
-        return null; //TODO: delete this line :)
+        return bus.sendEvent(e);
     }
 
     /**
@@ -104,7 +124,7 @@ public abstract class MicroService implements Runnable {
      * @param b The broadcast message to send
      */
     protected final void sendBroadcast(Broadcast b) {
-        //TODO: implement this.
+        bus.sendBroadcast(b);
     }
 
     /**
@@ -118,7 +138,7 @@ public abstract class MicroService implements Runnable {
      *               {@code e}.
      */
     protected final <T> void complete(Event<T> e, T result) {
-        //TODO: implement this.
+        bus.complete(e, result);
     }
 
     /**
@@ -143,15 +163,88 @@ public abstract class MicroService implements Runnable {
     }
 
     /**
-     * The entry point of the micro-service. TODO: you must complete this code
-     * otherwise you will end up in an infinite loop.
+     * The entry point of the micro-service.
+     * Registers to the message-bus, initializes the service and then handles the messages
+     * of its queue until it terminates.
+     * The service unregisters however its loop ends, also when a callback throws: the message
+     * in hand is then counted as handled and the rest of its queue goes to other subscribers,
+     * so a quiescence barrier never waits for a dead service.
      */
     @Override
     public final void run() {
-        initialize();
-        while (!terminated) {
-            System.out.println("NOT IMPLEMENTED!!!"); //TODO: you should delete this line :)
+        MessageJournal.setCurrentSender(name);
+        bus.register(this);
+        try {
+            initialize();
+            while (!terminated) {
+                try {
+                    Message message = bus.awaitMessage(this);
+                    Callback<Message> callback = callbackOf(message.getClass());
+                    if (callback != NO_CALLBACK) {
+                        if (CALLBACK_EXECUTION.isEnabled()) {
+                            callRecorded(callback, message);
+                        } else {
+                            callback.call(message);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    terminate();
+                }
+            }
+        } finally {
+            bus.unregister(this);
+        }
+    }
+
+    /**
+     * Returns the callback of a received message class: an array read once the class was
+     * resolved, so the event loop neither looks up a map nor allocates per message.
+     */
+    private Callback<Message> callbackOf(Class<?> type) {
+        int id = MessageTypes.idOf(type);
+        Callback<Message>[] table = dispatch;
+        Callback<Message> callback = id < table.length ? table[id] : null;
+        return callback != null ? callback : resolveCallback(type, id);
+    }
+
+    /**
+     * Resolves the callback of the most specific type of {@code type} this service subscribed to,
+     * so a callback subscribed for a message superclass or interface receives its subclasses.
+     * Resolutions are kept until the next subscription.
+     */
+    @SuppressWarnings("unchecked")
+    private Callback<Message> resolveCallback(Class<?> type, int id) {
+        Callback<Message> callback = NO_CALLBACK;
+        for (Class<?> t : MessageTypes.of(type)) {
+            Callback<? extends Message> subscribed = callbacks.get(t);
+            if (subscribed != null) {
+                callback = (Callback<Message>) subscribed;
+                break;
+            }
         }
+        if (id >= dispatch.length) {
+            dispatch = Arrays.copyOf(dispatch, Math.max(id + 1, dispatch.length * 2));
+        }
+        dispatch[id] = callback;
+        return callback;
+    }
+
+    // calls a callback inside a Flight Recorder event, only while a recording wants these events
+    private void callRecorded(Callback<Message> callback, Message message) {
+        CallbackExecution record = new CallbackExecution();
+        record.begin();
+        callback.call(message);
+        if (record.shouldCommit()) {
+            record.service = name;
+            record.messageType = message.getClass().getName();
+            record.commit();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Callback<Message>[] newDispatchTable(int size) {
+        return (Callback<Message>[]) new Callback<?>[size];
     }
 
 }
@@ -0,0 +1,550 @@
+package bgu.spl.mics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Links the message-bus of this process with the message-bus of another process over a
+ * non-blocking socket channel, so micro-services can run in separate JVMs.
+ * <p>
+ * Each side names the message types it forwards to its peer. A proxy micro-service
+ * subscribes to these types on the local bus: it takes part in the round robin of events
+ * like any other subscriber and receives every broadcast. What it receives is encoded with a
+ * {@link MessageCodec}, which must encode every forwarded type, and sent to the peer, which delivers it on its own bus. When the
+ * peer's handler completes a forwarded event, the result is sent back and resolves the
+ * {@link Future} of the original sender. Messages between micro-services of the same process
+ * never touch the link.
+ * </p>
+ * <p>
+ * A forwarded message stays in flight on the local bus until the peer answers it, so
+ * {@link MessageBusImpl#awaitQuiescence(MicroService)} also waits for the work done by the peer:
+ * an event until its result returns, a broadcast until the peer's bus handled every message it
+ * had, which it acknowledges with an empty result. The results are sent in the order the events
+ * complete, an event whose handler does not complete delays no other result.
+ * </p>
+ * An event type must be forwarded by one side only, or its events would bounce between the
+ * processes. A broadcast type may be forwarded by both sides: broadcasts received from the
+ * peer are not sent back. Event results are sent as null, booleans, numbers or strings;
+ * results of other types resolve as null on the sending side. If the connection is lost,
+ * every forwarded event still waiting for its result is resolved with null, and every forwarded
+ * message stops counting as in flight.
+ * <p>
+ * Frame layout: {@code int length, byte kind, long id}, followed for an event or a broadcast
+ * by {@code byte tag} and the encoded message, and for a result by the encoded result.
+ * </p>
+ */
+public class NioBusLink implements Closeable {
+    private static final byte EVENT = 1;
+    private static final byte BROADCAST = 2;
+    private static final byte RESULT = 3;
+    // the kinds of an encoded result
+    private static final byte NULL = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final int MAX_FRAME_LENGTH = 64 << 20;
+
+    private final MessageCodec codec;
+    private final MessageBusImpl bus;
+    private final List<Class<? extends Message>> forwarded; // the message types sent to the peer
+    private final Selector selector;
+    private final ServerSocketChannel server; // the listening channel until the peer connects, null on the connecting side
+    private final int localPort; // the port of the listening channel, -1 on the connecting side
+    private SocketChannel channel; // the connection to the peer, only used by the IO thread
+    private ByteBuffer readBuffer; // received bytes not handled yet, only used by the IO thread
+    private final ConcurrentLinkedQueue<ByteBuffer> outgoing; // frames waiting to be written
+    private final ConcurrentHashMap<Long, Event<Object>> sent; // forwarded events waiting for their result, by id
+    private final Set<Long> sentBroadcasts; // the ids of forwarded broadcasts the peer did not acknowledge yet
+    private final AtomicLong nextId;
+    private final Set<Message> injected; // broadcasts received from the peer, not to be forwarded back
+    // the futures of events received from the peer, and the broadcasts to acknowledge with a null future
+    private final LinkedBlockingQueue<Map.Entry<Long, Future<?>>> received;
+    private final Proxy proxy;
+    private final Thread ioThread;
+    private final Thread resultThread;
+    private final Thread proxyThread;
+    private final CountDownLatch closed;
+    private volatile boolean closing;
+
+    private NioBusLink(String name, ServerSocketChannel server, SocketChannel channel, MessageCodec codec,
+            List<Class<? extends Message>> forwarded) throws IOException {
+        this.codec = codec;
+        this.bus = MessageBusImpl.getInstance();
+        this.forwarded = forwarded;
+        this.selector = Selector.open();
+        this.server = server;
+        this.channel = channel;
+        this.localPort = server == null ? -1 : ((InetSocketAddress) server.getLocalAddress()).getPort();
+        this.readBuffer = ByteBuffer.allocate(1 << 16);
+        this.outgoing = new ConcurrentLinkedQueue<>();
+        this.sent = new ConcurrentHashMap<>();
+        this.sentBroadcasts = ConcurrentHashMap.newKeySet();
+        this.nextId = new AtomicLong(1);
+        this.injected = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        this.received = new LinkedBlockingQueue<>();
+        this.closed = new CountDownLatch(1);
+        if (server != null) {
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } else {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+        CountDownLatch subscribed = new CountDownLatch(1);
+        this.proxy = new Proxy(name, subscribed);
+        this.proxyThread = new Thread(proxy, name);
+        this.ioThread = new Thread(this::runIo, name + "-io");
+        this.resultThread = new Thread(this::runResults, name + "-results");
+        proxyThread.setDaemon(true);
+        ioThread.setDaemon(true);
+        resultThread.setDaemon(true);
+        proxyThread.start();
+        ioThread.start();
+        resultThread.start();
+        try {
+            subscribed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Listens for the peer on {@code address}. Messages forwarded before the peer connects
+     * are sent once it does.
+     *
+     * @param address   The address to listen on, port 0 for any free port.
+     * @param codec     The codec of the messages exchanged with the peer.
+     * @param forwarded The message types to forward to the peer.
+     * @throws IOException if the address could not be bound.
+     * @throws IllegalArgumentException if a forwarded type is not a message type or not encoded by {@code codec}.
+     */
+    public static NioBusLink listen(InetSocketAddress address, MessageCodec codec, Class<?>... forwarded)
+            throws IOException {
+        List<Class<? extends Message>> types = listOf(codec, forwarded);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(address);
+        return new NioBusLink("NioBusLink:" + server.getLocalAddress(), server, null, codec, types);
+    }
+
+    /**
+     * Connects to a peer listening on {@code address}.
+     *
+     * @param address   The address the peer listens on.
+     * @param codec     The codec of the messages exchanged with the peer.
+     * @param forwarded The message types to forward to the peer.
+     * @throws IOException if the connection could not be made.
+     * @throws IllegalArgumentException if a forwarded type is not a message type or not encoded by {@code codec}.
+     */
+    public static NioBusLink connect(InetSocketAddress address, MessageCodec codec, Class<?>... forwarded)
+            throws IOException {
+        List<Class<? extends Message>> types = listOf(codec, forwarded);
+        SocketChannel channel = SocketChannel.open(address);
+        channel.socket().setTcpNoDelay(true);
+        return new NioBusLink("NioBusLink:" + address, null, channel, codec, types);
+    }
+
+    // checked before opening a channel, a forwarded message the codec cannot encode could not be answered
+    private static List<Class<? extends Message>> listOf(MessageCodec codec, Class<?>[] types) {
+        List<Class<? extends Message>> list = new ArrayList<>(types.length);
+        for (Class<?> type : types) {
+            if (!Message.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("not a message type: " + type.getName());
+            }
+            if (!codec.encodes(type.asSubclass(Message.class))) {
+                throw new IllegalArgumentException("the codec does not encode " + type.getName());
+            }
+            list.add(type.asSubclass(Message.class));
+        }
+        return list;
+    }
+
+    /**
+     * @return The port this side listens on, or -1 on the connecting side.
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * Waits until the link is closed, by either side.
+     */
+    public void awaitClosed() throws InterruptedException {
+        closed.await();
+    }
+
+    /**
+     * Closes the connection. Forwarded events still waiting for their result are resolved
+     * with null.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        selector.wakeup();
+        if (Thread.currentThread() != ioThread) {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // called by the proxy for an event this side forwards, the event stays in flight until its result returns
+    private void forwardEvent(Event<Object> e) {
+        long id = nextId.getAndIncrement();
+        bus.holdRemote();
+        sent.put(id, e);
+        if (!enqueue(EVENT, id, e) || closed.getCount() == 0) {
+            if (sent.remove(id) != null) {
+                bus.complete(e, null);
+                bus.releaseRemote();
+            }
+        }
+    }
+
+    // called by the proxy for a broadcast this side forwards, it stays in flight until the peer acknowledges it
+    private void forwardBroadcast(Broadcast b) {
+        if (injected.remove(b)) {
+            return;
+        }
+        long id = nextId.getAndIncrement();
+        bus.holdRemote();
+        sentBroadcasts.add(id);
+        if (!enqueue(BROADCAST, id, b) || closed.getCount() == 0) {
+            if (sentBroadcasts.remove(id)) {
+                bus.releaseRemote();
+            }
+        }
+    }
+
+    private boolean enqueue(byte kind, long id, Message m) {
+        int tag = codec.tagOf(m);
+        if (tag < 0) {
+            return false;
+        }
+        try {
+            Frame out = frame(kind, id);
+            out.writeByte(tag);
+            codec.encode(m, out);
+            send(out);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void enqueueResult(long id, Object result) {
+        try {
+            Frame out = frame(RESULT, id);
+            if (result instanceof Boolean) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean((Boolean) result);
+            } else if (result instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) result);
+            } else if (result instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) result);
+            } else if (result instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) result);
+            } else if (result instanceof String) {
+                out.writeByte(STRING);
+                out.writeUTF((String) result);
+            } else {
+                out.writeByte(NULL);
+            }
+            send(out);
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+        }
+    }
+
+    private static Frame frame(byte kind, long id) throws IOException {
+        Frame out = new Frame();
+        out.writeInt(0); // the length, set by send
+        out.writeByte(kind);
+        out.writeLong(id);
+        return out;
+    }
+
+    private void send(Frame out) throws IOException {
+        ByteBuffer buffer = out.toBuffer();
+        buffer.putInt(0, buffer.remaining() - 4);
+        outgoing.add(buffer);
+        selector.wakeup();
+    }
+
+    private void runIo() {
+        try {
+            while (!closing) {
+                if (channel != null) {
+                    SelectionKey key = channel.keyFor(selector);
+                    key.interestOps(SelectionKey.OP_READ | (outgoing.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        if (key.isReadable()) {
+                            read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // the peer is gone, resolve what is still waiting for it
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel accepted = server.accept();
+        if (accepted == null) {
+            return;
+        }
+        accepted.configureBlocking(false);
+        accepted.socket().setTcpNoDelay(true);
+        accepted.register(selector, SelectionKey.OP_READ);
+        server.close();
+        channel = accepted;
+    }
+
+    private void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new EOFException();
+        }
+        readBuffer.flip();
+        int needed = 0;
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("invalid frame length: " + length);
+            }
+            if (readBuffer.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+            readBuffer.getInt();
+            byte[] frame = new byte[length];
+            readBuffer.get(frame);
+            handle(new DataInputStream(new ByteArrayInputStream(frame)));
+        }
+        readBuffer.compact();
+        if (needed > readBuffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, readBuffer.capacity() * 2));
+            readBuffer.flip();
+            bigger.put(readBuffer);
+            readBuffer = bigger;
+        }
+    }
+
+    private void write() throws IOException {
+        ByteBuffer head;
+        while ((head = outgoing.peek()) != null) {
+            channel.write(head);
+            if (head.hasRemaining()) {
+                return;
+            }
+            outgoing.poll();
+        }
+    }
+
+    private void handle(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        long id = in.readLong();
+        if (kind == RESULT) {
+            Object result = readResult(in);
+            Event<Object> e = sent.remove(id);
+            if (e != null) {
+                bus.complete(e, result);
+                bus.releaseRemote();
+            } else if (sentBroadcasts.remove(id)) {
+                bus.releaseRemote();
+            }
+        } else if (kind == EVENT) {
+            Future<?> future = bus.sendEvent((Event<?>) codec.decode(in.readUnsignedByte(), in));
+            if (future == null) {
+                enqueueResult(id, null);
+            } else {
+                received.add(new AbstractMap.SimpleImmutableEntry<Long, Future<?>>(id, future));
+                LockSupport.unpark(resultThread);
+            }
+        } else if (kind == BROADCAST) {
+            Broadcast b = (Broadcast) codec.decode(in.readUnsignedByte(), in);
+            if (isForwarded(b.getClass())) {
+                injected.add(b);
+            }
+            bus.sendBroadcast(b);
+            received.add(new AbstractMap.SimpleImmutableEntry<Long, Future<?>>(id, null));
+            LockSupport.unpark(resultThread);
+        } else {
+            throw new IOException("unknown frame kind: " + kind);
+        }
+    }
+
+    private static Object readResult(DataInputStream in) throws IOException {
+        switch (in.readByte()) {
+            case BOOLEAN:
+                return in.readBoolean();
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+                return in.readUTF();
+            default:
+                return null;
+        }
+    }
+
+    private boolean isForwarded(Class<?> type) {
+        for (Class<? extends Message> t : forwarded) {
+            if (t.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // sends the results of the events received from the peer as they complete, and acknowledges
+    // the broadcasts received once the local bus handled every message it had. While anything
+    // waits, the thread is woken up by the bus whenever a message was handled or an event
+    // completed, and by the IO thread whenever the peer sent more
+    private void runResults() {
+        List<Map.Entry<Long, Future<?>>> waiting = new ArrayList<>();
+        Thread self = Thread.currentThread();
+        try {
+            while (!self.isInterrupted()) {
+                if (waiting.isEmpty()) {
+                    bus.removeProgressWaiter(self);
+                    waiting.add(received.take());
+                    // added before the checks below, so no progress after them is missed
+                    bus.addProgressWaiter(self);
+                }
+                received.drainTo(waiting);
+                boolean quiescent = bus.isLocallyQuiescent();
+                Iterator<Map.Entry<Long, Future<?>>> it = waiting.iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Long, Future<?>> entry = it.next();
+                    Future<?> future = entry.getValue();
+                    if (future == null ? quiescent : future.isDone()) {
+                        it.remove();
+                        enqueueResult(entry.getKey(), future == null ? null : future.get());
+                    }
+                }
+                if (!waiting.isEmpty()) {
+                    LockSupport.park(this);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            bus.removeProgressWaiter(self);
+        }
+    }
+
+    private void shutdown() {
+        closing = true;
+        closeQuietly(channel);
+        closeQuietly(server);
+        closeQuietly(selector);
+        closed.countDown();
+        for (Long id : new ArrayList<>(sent.keySet())) {
+            Event<Object> e = sent.remove(id);
+            if (e != null) {
+                bus.complete(e, null);
+                bus.releaseRemote();
+            }
+        }
+        for (Long id : new ArrayList<>(sentBroadcasts)) {
+            if (sentBroadcasts.remove(id)) {
+                bus.releaseRemote();
+            }
+        }
+        proxyThread.interrupt();
+        resultThread.interrupt();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    // a frame being encoded
+    private static class Frame extends DataOutputStream {
+        private Frame() {
+            super(new ByteArrayOutputStream());
+        }
+
+        private ByteBuffer toBuffer() throws IOException {
+            flush();
+            return ByteBuffer.wrap(((ByteArrayOutputStream) out).toByteArray());
+        }
+    }
+
+    // the local subscriber standing for the peer
+    private class Proxy extends MicroService {
+        private final CountDownLatch subscribed;
+
+        private Proxy(String name, CountDownLatch subscribed) {
+            super(name);
+            this.subscribed = subscribed;
+        }
+
+        @Override
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        protected void initialize() {
+            for (Class<? extends Message> type : forwarded) {
+                if (Event.class.isAssignableFrom(type)) {
+                    subscribeEvent((Class) type, (Callback<Event<Object>>) NioBusLink.this::forwardEvent);
+                } else {
+                    subscribeBroadcast((Class) type, (Callback<Broadcast>) NioBusLink.this::forwardBroadcast);
+                }
+            }
+            subscribed.countDown();
+        }
+    }
+}
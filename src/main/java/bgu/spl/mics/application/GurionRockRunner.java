@@ -1,5 +1,45 @@
 package bgu.spl.mics.application;
 
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageJournal;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.MessageCodecs;
+import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.CameraDataIndex;
+import bgu.spl.mics.application.objects.CheckpointLog;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.GPSIMU;
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.services.CameraService;
+import bgu.spl.mics.application.services.FusionSlamService;
+import bgu.spl.mics.application.services.LiDarPoolService;
+import bgu.spl.mics.application.services.LiDarService;
+import bgu.spl.mics.application.services.PoseService;
+import bgu.spl.mics.application.services.TimeService;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The main entry point for the GurionRock Pro Max Ultra Over 9000 simulation.
  * <p>
@@ -8,6 +48,7 @@ package bgu.spl.mics.application;
  * </p>
  */
 public class GurionRockRunner {
+    private static final Gson gson = new Gson();
 
     /**
      * The main method of the simulation.
@@ -15,12 +56,291 @@ public class GurionRockRunner {
      * initializes services, and starts the simulation.
      *
      * @param args Command-line arguments. The first argument is expected to be the path to the configuration file.
+     *             It may be followed by {@code --metrics-port=<port>} to serve live metrics on localhost.
+     *             With {@code --batch}, every non-option argument is a configuration file and the simulations
+     *             run concurrently on {@code --threads=<n>} threads (default: the number of processors).
+     *             With {@code --checkpoint=<file>}, a checkpoint is appended to the file every
+     *             {@code --checkpoint-interval=<ticks>} ticks (default: 1000), and {@code --resume}
+     *             goes on from the newest checkpoint in the file instead of starting from tick 0.
+     *             With {@code --journal=<file>}, every message handled by a service is recorded to the
+     *             file, to be replayed by {@link JournalReplay}.
      */
     public static void main(String[] args) {
-        System.out.println("Hello World!");
+        List<String> configs = new ArrayList<>();
+        int metricsPort = -1;
+        boolean batch = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String checkpointPath = null;
+        int checkpointInterval = 1000;
+        boolean resume = false;
+        String journalPath = null;
+        for (String arg : args) {
+            if (arg.startsWith("--metrics-port=")) {
+                metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            } else if (arg.equals("--batch")) {
+                batch = true;
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--checkpoint=")) {
+                checkpointPath = arg.substring("--checkpoint=".length());
+            } else if (arg.startsWith("--checkpoint-interval=")) {
+                checkpointInterval = Integer.parseInt(arg.substring("--checkpoint-interval=".length()));
+            } else if (arg.equals("--resume")) {
+                resume = true;
+            } else if (arg.startsWith("--journal=")) {
+                journalPath = arg.substring("--journal=".length());
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("unknown option: " + arg);
+            } else {
+                configs.add(arg);
+            }
+        }
+        if (configs.isEmpty() || (!batch && configs.size() > 1)) {
+            System.err.println("Usage: GurionRockRunner <configuration file> [--metrics-port=<port>]"
+                    + " [--checkpoint=<file> [--checkpoint-interval=<ticks>] [--resume]] [--journal=<file>]");
+            System.err.println("       GurionRockRunner --batch [--threads=<n>] <configuration file>...");
+            return;
+        }
+        if (batch && metricsPort >= 0) {
+            throw new IllegalArgumentException("--metrics-port is not supported in batch mode");
+        }
+        if (batch && checkpointPath != null) {
+            throw new IllegalArgumentException("--checkpoint is not supported in batch mode");
+        }
+        if (batch && journalPath != null) {
+            throw new IllegalArgumentException("--journal is not supported in batch mode");
+        }
+        if (resume && checkpointPath == null) {
+            throw new IllegalArgumentException("--resume requires --checkpoint=<file>");
+        }
+
+        if (batch) {
+            runBatch(configs, threads);
+        } else {
+            String config = configs.get(0);
+            int port = metricsPort;
+            String checkpoint = checkpointPath;
+            int interval = checkpointInterval;
+            boolean resumeRun = resume;
+            try (MessageJournal journal = journalPath != null ? new MessageJournal(journalPath, new MessageCodecs())
+                    : null) {
+                new SimulationContext(config, journal).call(() -> {
+                    runSimulation(config, port, checkpoint, interval, resumeRun);
+                    return null;
+                });
+            } catch (Exception e) {
+                System.err.println("Simulation " + config + " failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * Runs many simulations concurrently in this JVM.
+     * Each simulation runs in its own {@link SimulationContext}, with its own message-bus,
+     * FusionSlam map, LiDAR database and statistics. At most {@code threads} simulations
+     * run at the same time.
+     */
+    private static void runBatch(List<String> configs, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> runs = new ArrayList<>();
+        for (String config : configs) {
+            runs.add(pool.submit(() -> new SimulationContext(config).call(() -> {
+                runSimulation(config, -1, null, 0, false);
+                return null;
+            })));
+        }
+        pool.shutdown();
+        int failed = 0;
+        for (int i = 0; i < configs.size(); i++) {
+            try {
+                runs.get(i).get();
+                System.out.println("Simulation " + configs.get(i) + " done");
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Simulation " + configs.get(i) + " failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return;
+            }
+        }
+        System.out.println("Batch done: " + (configs.size() - failed) + " succeeded, " + failed + " failed");
+    }
+
+    /**
+     * Runs a single simulation. Must be called inside its {@link SimulationContext}.
+     * Every service but the TimeService is started and initialized before the first tick is
+     * sent, and the output file and the occupancy grid are written once every service terminated.
+     * If a camera crashed, the error output is written in place of the output file.
+     *
+     * @param configPath         The path to the configuration file.
+     * @param metricsPort        The port to serve live metrics on, -1 to disable the metrics server.
+     * @param checkpointPath     The file to append checkpoints to, null to disable checkpoints.
+     * @param checkpointInterval The number of ticks between checkpoints.
+     * @param resume             true to go on from the newest checkpoint in {@code checkpointPath}.
+     * @throws IllegalArgumentException if resuming a run that exports the occupancy grid, which is not checkpointed.
+     * @throws IOException if a configuration or data file could not be read, or the output could not be written.
+     */
+    private static void runSimulation(String configPath, int metricsPort, String checkpointPath,
+            int checkpointInterval, boolean resume) throws IOException, InterruptedException {
+        SimulationConfig config = SimulationConfig.load(configPath);
+        if (resume && config.getOccupancyGridPath() != null) {
+            throw new IllegalArgumentException("--resume is not supported with OccupancyGridFile,"
+                    + " the occupancy grid is not checkpointed");
+        }
+        SimulationContext context = SimulationContext.current();
+        StatisticalFolder statistics = context.getStatistics();
+        CheckpointLog checkpoints = null;
+        int startTick = 0; // the last tick already simulated, the TimeService starts after it
+        if (checkpointPath != null) {
+            checkpoints = new CheckpointLog(checkpointPath, checkpointInterval, FusionSlam.getInstance(), statistics);
+            startTick = checkpoints.open(resume);
+            context.setCheckpointLog(checkpoints);
+            if (startTick > 0) {
+                System.out.println("Resuming " + configPath + " after tick " + startTick);
+            }
+        }
+        MetricsServer metrics = null;
+        if (metricsPort >= 0) {
+            try {
+                metrics = MetricsServer.start(metricsPort, statistics, FusionSlam.getInstance(),
+                        MessageBusImpl.getInstance());
+                System.out.println("Serving metrics on http://localhost:" + metrics.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Could not start the metrics server: " + e.getMessage());
+            }
+        }
+
+        try {
+            FusionSlam fusionSlam = FusionSlam.getInstance();
+            fusionSlam.setBoundedRefinement(config.isBoundedRefinement());
+            fusionSlam.setVoxelSize(config.getVoxelSize());
+            LiDarDataBase database = LiDarDataBase.getInstance(config.getLiDarDataPath());
+            // the camera data is either paged in by block from an index or loaded up front
+            CameraDataIndex cameraIndex = config.getCameraBlockTicks() > 0
+                    ? CameraDataIndex.build(config.getCameraDataPath(), config.getCameraBlockTicks()) : null;
+            Map<String, List<StampedDetectedObjects>> cameraData = cameraIndex == null
+                    ? loadCameraData(config.getCameraDataPath()) : null;
+            List<MicroService> services = new ArrayList<>();
+            List<Camera> cameras = new ArrayList<>();
+            List<LiDarWorkerTracker> workers = new ArrayList<>();
+            List<LiDarService> liDarServices = new ArrayList<>();
+            OutputWriter output = new OutputWriter(config.getOutputPath(), config.getSnapshotInterval());
+            services.add(new FusionSlamService(fusionSlam, statistics, output));
+            for (SimulationConfig.CameraConfig camera : config.getCameras()) {
+                if (cameraIndex != null) {
+                    cameras.add(new Camera(camera.getId(), camera.getFrequency(), cameraIndex, camera.getCameraKey()));
+                } else {
+                    List<StampedDetectedObjects> frames = cameraData.get(camera.getCameraKey());
+                    cameras.add(new Camera(camera.getId(), camera.getFrequency(),
+                            frames != null ? frames : new ArrayList<StampedDetectedObjects>()));
+                }
+                cameras.get(cameras.size() - 1).setKeyframeInterval(config.getKeyframeInterval());
+                services.add(new CameraService(cameras.get(cameras.size() - 1), statistics));
+            }
+            for (SimulationConfig.LiDarConfig worker : config.getLiDarWorkers()) {
+                workers.add(new LiDarWorkerTracker(worker.getId(), worker.getFrequency()));
+                liDarServices.add(new LiDarService(workers.get(workers.size() - 1), database, statistics));
+            }
+            services.addAll(liDarServices);
+            SimulationConfig.LiDarPoolConfig pool = config.getLiDarPool();
+            LiDarPoolService poolService = null;
+            if (pool != null && !workers.isEmpty()) {
+                int frequency = 0;
+                for (LiDarWorkerTracker worker : workers) {
+                    frequency = Math.max(frequency, worker.getFrequency());
+                }
+                poolService = new LiDarPoolService(liDarServices, frequency, pool.getThreshold(),
+                        pool.getMaxExtraWorkers(), pool.getIdleTicks(), database, statistics);
+                services.add(poolService);
+            }
+            GPSIMU gpsimu = new GPSIMU(loadPoses(config.getPoseDataPath()));
+            services.add(new PoseService(gpsimu));
+
+            List<Thread> threads = new ArrayList<>();
+            for (MicroService service : services) {
+                threads.add(start(service));
+            }
+            awaitInitialized(context, threads);
+            threads.add(start(new TimeService(config.getTickTime(), config.getDuration(), startTick, checkpoints,
+                    statistics)));
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Camera faulty = findFaulty(cameras);
+            if (faulty != null) {
+                if (poolService != null) {
+                    // the extra workers tracked frames too, the pool's thread has ended
+                    workers.addAll(poolService.getExtraWorkers());
+                }
+                output.writeErrorOutput(faulty.getError(), "Camera" + faulty.getId(), cameras, workers,
+                        gpsimu.getPosesUpTo(statistics.getSystemRuntime()), statistics, fusionSlam);
+            } else {
+                output.writeOutput(statistics, fusionSlam);
+            }
+            if (config.getOccupancyGridPath() != null) {
+                fusionSlam.exportOccupancyGrid(config.getOccupancyGridPath());
+            }
+            if (config.getHistoryPath() != null) {
+                statistics.writeHistory(config.getHistoryPath());
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.stop();
+            }
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+        }
+    }
+
+    // Returns the camera that reported an error, null if none did
+    private static Camera findFaulty(List<Camera> cameras) {
+        for (Camera camera : cameras) {
+            if (camera.getError() != null) {
+                return camera;
+            }
+        }
+        return null;
+    }
+
+    private static Thread start(MicroService service) {
+        Thread thread = new Thread(service, service.getName());
+        thread.start();
+        return thread;
+    }
+
+    // Waits until every started service subscribed to its messages, or failed to
+    private static void awaitInitialized(SimulationContext context, List<Thread> threads) throws InterruptedException {
+        while (!context.awaitInitializedServices(threads.size(), 100, TimeUnit.MILLISECONDS)) {
+            for (Thread thread : threads) {
+                if (!thread.isAlive()) {
+                    throw new IllegalStateException(thread.getName() + " stopped during its initialization");
+                }
+            }
+        }
+    }
+
+    // Reads the camera data file: {"camera1": [{"time": t, "detectedObjects": [...]}, ...], ...}
+    private static Map<String, List<StampedDetectedObjects>> loadCameraData(String filePath) throws IOException {
+        try (Reader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            Map<String, List<StampedDetectedObjects>> frames = gson.fromJson(reader,
+                    new TypeToken<HashMap<String, ArrayList<StampedDetectedObjects>>>() {
+                    }.getType());
+            return frames != null ? frames : new HashMap<String, List<StampedDetectedObjects>>();
+        } catch (JsonParseException e) {
+            throw new IOException("could not parse the camera data file " + filePath, e);
+        }
+    }
 
-        // TODO: Parse configuration file.
-        // TODO: Initialize system components and services.
-        // TODO: Start the simulation.
+    // Reads the pose data file: [{"time": t, "x": x, "y": y, "yaw": yaw}, ...], ordered by time
+    private static ArrayList<Pose> loadPoses(String filePath) throws IOException {
+        try (Reader reader = Files.newBufferedReader(Paths.get(filePath), StandardCharsets.UTF_8)) {
+            ArrayList<Pose> poses = gson.fromJson(reader, new TypeToken<ArrayList<Pose>>() {
+            }.getType());
+            return poses != null ? poses : new ArrayList<Pose>();
+        } catch (JsonParseException e) {
+            throw new IOException("could not parse the pose data file " + filePath, e);
+        }
     }
 }
@@ -0,0 +1,86 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MessageJournal;
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.MessageCodecs;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.services.FusionSlamService;
+
+import java.io.IOException;
+
+/**
+ * Replays a recorded {@link MessageJournal} to a FusionSlamService alone.
+ * <p>
+ * No sensor service and no TimeService run: the messages the recorded FusionSlam service
+ * received are sent to a fresh one in journal order, as fast as it handles them. This
+ * reprocesses a recorded run with the current fusion logic and reproduces the exact order
+ * of its messages.
+ * </p>
+ * Usage: {@code JournalReplay <journal file> <output file>}
+ */
+public class JournalReplay {
+
+    /**
+     * Replays a journal in a new {@link SimulationContext}.
+     *
+     * @param journalPath The path of the journal file.
+     * @param outputPath  The path to write the resulting output file to, null to skip it.
+     * @return The context of the replay, holding the resulting map and statistics.
+     */
+    public static SimulationContext replay(String journalPath, String outputPath) throws Exception {
+        SimulationContext context = new SimulationContext(journalPath);
+        context.call(() -> {
+            FusionSlamService service = new FusionSlamService(FusionSlam.getInstance(), context.getStatistics());
+            Thread thread = new Thread(service, service.getName());
+            thread.start();
+            service.awaitInitialized();
+            StatisticalFolder statistics = context.getStatistics();
+            try {
+                statistics.setSystemRuntime(feed(journalPath, service));
+            } finally {
+                thread.interrupt();
+                thread.join();
+            }
+            if (outputPath != null) {
+                new OutputWriter(outputPath, 0).writeOutput(statistics, FusionSlam.getInstance());
+            }
+            return null;
+        });
+        return context;
+    }
+
+    // Sends the messages the recorded service handled, in the order it handled them, and waits
+    // until the service has handled all of them. Returns the last tick recorded.
+    private static int feed(String journalPath, MicroService service) throws IOException, InterruptedException {
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        int tick = 0;
+        try (MessageJournal.Reader reader = new MessageJournal.Reader(journalPath, new MessageCodecs())) {
+            for (MessageJournal.Entry entry = reader.next(); entry != null; entry = reader.next()) {
+                tick = entry.getTick();
+                if (!entry.getReceiver().equals(service.getName())) {
+                    continue;
+                }
+                if (entry.getMessage() instanceof Broadcast) {
+                    bus.sendBroadcast((Broadcast) entry.getMessage());
+                } else {
+                    bus.sendEvent((Event<?>) entry.getMessage());
+                }
+            }
+        }
+        bus.awaitQuiescence(null);
+        return tick;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: JournalReplay <journal file> <output file>");
+            return;
+        }
+        replay(args[0], args[1]);
+    }
+}
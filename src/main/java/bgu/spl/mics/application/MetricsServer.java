@@ -0,0 +1,162 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An embedded HTTP server exposing live metrics of a running simulation on localhost.
+ * <p>
+ * {@code /metrics} serves the metrics in the Prometheus text format and
+ * {@code /metrics.json} serves them as JSON. Requests are handled by a single daemon
+ * thread that only reads lock-free counters, so serving never blocks the simulation
+ * threads.
+ * </p>
+ */
+public class MetricsServer {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final StatisticalFolder statistics;
+    private final FusionSlam fusionSlam;
+    private final MessageBusImpl bus;
+
+    private MetricsServer(HttpServer server, StatisticalFolder statistics, FusionSlam fusionSlam, MessageBusImpl bus) {
+        this.server = server;
+        this.statistics = statistics;
+        this.fusionSlam = fusionSlam;
+        this.bus = bus;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-server");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Starts a metrics server on the loopback interface.
+     *
+     * @param port The port to listen on, 0 for any free port.
+     * @return The started server.
+     * @throws IOException if the server could not be bound.
+     */
+    public static MetricsServer start(int port, StatisticalFolder statistics, FusionSlam fusionSlam,
+            MessageBusImpl bus) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        MetricsServer metrics = new MetricsServer(server, statistics, fusionSlam, bus);
+        server.createContext("/metrics", metrics::handlePrometheus);
+        server.createContext("/metrics.json", metrics::handleJson);
+        server.setExecutor(metrics.executor);
+        server.start();
+        return metrics;
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handlePrometheus(HttpExchange exchange) throws IOException {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "gurionrock_current_tick", "The last tick reached by the simulation.", statistics.getSystemRuntime());
+        counter(out, "gurionrock_detected_objects_total", "Objects detected by all cameras.",
+                statistics.getNumDetectedObjects());
+        counter(out, "gurionrock_tracked_objects_total", "Objects tracked by all LiDAR workers.",
+                statistics.getNumTrackedObjects());
+        gauge(out, "gurionrock_landmarks", "Landmarks in the FusionSlam map.", fusionSlam.getLandmarkCount());
+        gauge(out, "gurionrock_fusion_pending_objects", "Tracked objects waiting for their pose.",
+                fusionSlam.getPendingDepth());
+        gauge(out, "gurionrock_fusion_pending_objects_max",
+                "The most tracked objects that waited for their pose at once.", fusionSlam.getMaxPendingDepth());
+        counter(out, "gurionrock_fusion_released_objects_total", "Tracked objects released once their pose arrived.",
+                fusionSlam.getReleasedCount());
+        counter(out, "gurionrock_fusion_pending_wait_nanoseconds_total",
+                "The time released objects waited for their pose, summed.", fusionSlam.getTotalPendingWaitNanos());
+        gauge(out, "gurionrock_lidar_pool_size", "LiDAR services running, in elastic mode.",
+                statistics.getLiDarPoolSize());
+        counter(out, "gurionrock_lidar_scale_ups_total", "LiDAR services started by the LiDAR pool.",
+                statistics.getLiDarScaleUps());
+        counter(out, "gurionrock_lidar_scale_downs_total", "LiDAR services retired by the LiDAR pool.",
+                statistics.getLiDarScaleDowns());
+        out.append("# HELP gurionrock_mailbox_depth Messages waiting in the queue of a micro-service.\n");
+        out.append("# TYPE gurionrock_mailbox_depth gauge\n");
+        for (Map.Entry<String, Integer> entry : bus.getQueueSizes().entrySet()) {
+            out.append("gurionrock_mailbox_depth{service=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        send(exchange, "text/plain; version=0.0.4; charset=utf-8", out.toString());
+    }
+
+    private void handleJson(HttpExchange exchange) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.beginObject();
+            writer.name("currentTick").value(statistics.getSystemRuntime());
+            writer.name("numDetectedObjects").value(statistics.getNumDetectedObjects());
+            writer.name("numTrackedObjects").value(statistics.getNumTrackedObjects());
+            writer.name("numLandmarks").value(statistics.getNumLandmarks());
+            writer.name("landmarkCount").value(fusionSlam.getLandmarkCount());
+            writer.name("fusionPendingObjects").value(fusionSlam.getPendingDepth());
+            writer.name("fusionMaxPendingObjects").value(fusionSlam.getMaxPendingDepth());
+            writer.name("fusionReleasedObjects").value(fusionSlam.getReleasedCount());
+            writer.name("fusionAveragePendingWaitMillis").value(fusionSlam.getAveragePendingWaitMillis());
+            writer.name("liDarPoolSize").value(statistics.getLiDarPoolSize());
+            writer.name("liDarScaleUps").value(statistics.getLiDarScaleUps());
+            writer.name("liDarScaleDowns").value(statistics.getLiDarScaleDowns());
+            writer.name("mailboxDepth");
+            writer.beginObject();
+            for (Map.Entry<String, Integer> entry : bus.getQueueSizes().entrySet()) {
+                writer.name(entry.getKey()).value(entry.getValue());
+            }
+            writer.endObject();
+            writer.endObject();
+        }
+        send(exchange, "application/json; charset=utf-8", out.toString());
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "gauge", value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        metric(out, name, help, "counter", value);
+    }
+
+    private static void metric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.TrackedObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes the output file of the simulation.
+ * <p>
+ * The output is streamed with a {@link JsonWriter} over a buffered file channel: the
+ * statistics are written first and the landmarks are written one by one straight from
+ * the {@link FusionSlam} storage, under its lock, so no in-memory copy of the map is ever built.
+ * </p>
+ * Optionally, a snapshot of the output is written every {@code snapshotInterval} ticks.
+ * Snapshots are written to a temporary file and then moved over the previous one, so a
+ * reader never sees a half-written snapshot.
+ */
+public class OutputWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path outputFile; // the path of the final output file
+    private final int snapshotInterval; // the number of ticks between snapshots, 0 disables snapshots
+
+    /**
+     * @param outputFile       The path of the final output file, snapshots are written next to it.
+     * @param snapshotInterval The number of ticks between snapshots, 0 to disable snapshots.
+     */
+    public OutputWriter(String outputFile, int snapshotInterval) {
+        if (snapshotInterval < 0) {
+            throw new IllegalArgumentException("snapshot interval must not be negative, received: " + snapshotInterval);
+        }
+        this.outputFile = Paths.get(outputFile);
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Writes a snapshot if one is due at {@code tick}.
+     * Must be called from the thread that updates {@code fusionSlam}, e.g. on every
+     * TickBroadcast handled by the FusionSlam service.
+     *
+     * @return true if a snapshot was written.
+     * @throws IOException if the snapshot could not be written.
+     */
+    public boolean onTick(int tick, StatisticalFolder statistics, FusionSlam fusionSlam) throws IOException {
+        if (snapshotInterval == 0 || tick % snapshotInterval != 0) {
+            return false;
+        }
+        Path snapshot = snapshotFile();
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        write(tmp, statistics, fusionSlam);
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Writes the final output file.
+     *
+     * @throws IOException if the output file could not be written.
+     */
+    public void writeOutput(StatisticalFolder statistics, FusionSlam fusionSlam) throws IOException {
+        write(outputFile, statistics, fusionSlam);
+    }
+
+    /**
+     * Writes the error output file, in place of the final output, after a sensor crashed.
+     * The last frame of every sensor is the one it recorded and the poses are streamed from the
+     * loaded pose data, so nothing is copied.
+     *
+     * @param error        The error description reported by the faulty sensor.
+     * @param faultySensor The name of the faulty sensor.
+     * @param poses        The poses reached up to the crash, see {@link bgu.spl.mics.application.objects.GPSIMU#getPosesUpTo(int)}.
+     * @throws IOException if the output file could not be written.
+     */
+    public void writeErrorOutput(String error, String faultySensor, List<Camera> cameras,
+            List<LiDarWorkerTracker> workers, List<Pose> poses, StatisticalFolder statistics,
+            FusionSlam fusionSlam) throws IOException {
+        try (JsonWriter writer = open(outputFile)) {
+            writer.beginObject();
+            writer.name("error").value(error);
+            writer.name("faultySensor").value(faultySensor);
+            writer.name("lastCamerasFrame");
+            writer.beginObject();
+            for (Camera camera : cameras) {
+                StampedDetectedObjects frame = camera.getLastFrame();
+                if (frame != null) {
+                    writer.name("Camera" + camera.getId());
+                    writeFrame(writer, frame);
+                }
+            }
+            writer.endObject();
+            writer.name("lastLiDarWorkerTrackersFrame");
+            writer.beginObject();
+            for (LiDarWorkerTracker worker : workers) {
+                writer.name("LiDarWorkerTracker" + worker.getId());
+                writer.beginArray();
+                for (TrackedObject object : worker.getLastTrackedObjects()) {
+                    writeTrackedObject(writer, object);
+                }
+                writer.endArray();
+            }
+            writer.endObject();
+            writer.name("poses");
+            writer.beginArray();
+            for (Pose pose : poses) {
+                writer.beginObject();
+                writer.name("time").value(pose.getTime());
+                writer.name("x").value(pose.getX());
+                writer.name("y").value(pose.getY());
+                writer.name("yaw").value(pose.getYaw());
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.name("statistics");
+            writer.beginObject();
+            writeStatistics(writer, statistics);
+            writer.name("landMarks");
+            writeLandmarks(writer, fusionSlam);
+            writer.endObject();
+            writer.endObject();
+        }
+    }
+
+    /**
+     * @return The path of the periodic snapshot file.
+     */
+    public Path snapshotFile() {
+        String name = outputFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String snapshotName = dot < 0 ? name + "_snapshot" : name.substring(0, dot) + "_snapshot" + name.substring(dot);
+        return outputFile.resolveSibling(snapshotName);
+    }
+
+    private static void write(Path file, StatisticalFolder statistics, FusionSlam fusionSlam) throws IOException {
+        try (JsonWriter writer = open(file)) {
+            writer.beginObject();
+            writeStatistics(writer, statistics);
+            writer.name("landMarks");
+            writeLandmarks(writer, fusionSlam);
+            writer.endObject();
+        }
+    }
+
+    private static JsonWriter open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new JsonWriter(new BufferedWriter(
+                Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), BUFFER_SIZE));
+    }
+
+    /**
+     * Writes the statistics fields to an object that is already open.
+     */
+    static void writeStatistics(JsonWriter writer, StatisticalFolder statistics) throws IOException {
+        writer.name("systemRuntime").value(statistics.getSystemRuntime());
+        writer.name("numDetectedObjects").value(statistics.getNumDetectedObjects());
+        writer.name("numTrackedObjects").value(statistics.getNumTrackedObjects());
+        writer.name("numLandmarks").value(statistics.getNumLandmarks());
+    }
+
+    private static void writeFrame(JsonWriter writer, StampedDetectedObjects frame) throws IOException {
+        writer.beginObject();
+        writer.name("time").value(frame.getTime());
+        writer.name("detectedObjects");
+        writer.beginArray();
+        for (DetectedObject object : frame.getDetectedObjects()) {
+            writer.beginObject();
+            writer.name("id").value(object.getId());
+            writer.name("description").value(object.getDescription());
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static void writeTrackedObject(JsonWriter writer, TrackedObject object) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(object.getId());
+        writer.name("time").value(object.getTime());
+        writer.name("description").value(object.getDescription());
+        writer.name("coordinates");
+        writeCoordinates(writer, object.getPoints());
+        writer.endObject();
+    }
+
+    private static void writeCoordinates(JsonWriter writer, List<CloudPoint> points) throws IOException {
+        writer.beginArray();
+        for (CloudPoint p : points) {
+            writer.beginObject();
+            writer.name("x").value(p.getX());
+            writer.name("y").value(p.getY());
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes the landmarks as an object keyed by landmark ID.
+     */
+    static void writeLandmarks(JsonWriter writer, FusionSlam fusionSlam) throws IOException {
+        writer.beginObject();
+        fusionSlam.forEachLandmark(landMark -> {
+            writer.name(landMark.getId());
+            writer.beginObject();
+            writer.name("id").value(landMark.getId());
+            writer.name("description").value(landMark.getDescription());
+            writer.name("coordinates");
+            writeCoordinates(writer, landMark.getPoints());
+            writer.endObject();
+        });
+        writer.endObject();
+    }
+}
@@ -0,0 +1,74 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.NioBusLink;
+import bgu.spl.mics.application.messages.MessageCodecs;
+import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.services.FusionSlamService;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Runs the FusionSlam service in a process of its own.
+ * <p>
+ * The service waits for the sensor process on a loopback port. The sensor process links its
+ * bus with {@link #connectSensors(int)}, which forwards the TrackedObjectsEvents, PoseEvents and
+ * TickBroadcasts. Once the sensor process closes the link, the output file is written.
+ * </p>
+ * Usage: {@code RemoteFusionSlam <port> <output file>}
+ */
+public class RemoteFusionSlam {
+
+    /**
+     * Serves a FusionSlam service until the sensor process disconnects, in a new
+     * {@link SimulationContext}.
+     *
+     * @param port       The loopback port to listen on, 0 for any free port.
+     * @param outputPath The path to write the output file to.
+     * @return The context of the run, holding the resulting map and statistics.
+     */
+    public static SimulationContext serve(int port, String outputPath) throws Exception {
+        SimulationContext context = new SimulationContext("RemoteFusionSlam");
+        context.call(() -> {
+            FusionSlamService service = new FusionSlamService(FusionSlam.getInstance(), context.getStatistics());
+            Thread thread = new Thread(service, service.getName());
+            thread.start();
+            service.awaitInitialized();
+            try (NioBusLink link = NioBusLink.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    new MessageCodecs())) {
+                link.awaitClosed();
+            } finally {
+                thread.interrupt();
+                thread.join();
+            }
+            new OutputWriter(outputPath, 0).writeOutput(context.getStatistics(), FusionSlam.getInstance());
+            return null;
+        });
+        return context;
+    }
+
+    /**
+     * Links the bus of the calling thread's simulation with a remote FusionSlam service.
+     * Must be called before the sensor services start sending.
+     *
+     * @param port The loopback port the FusionSlam process listens on.
+     * @return The link, to close once the simulation is over.
+     */
+    public static NioBusLink connectSensors(int port) throws IOException {
+        return NioBusLink.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), new MessageCodecs(),
+                TrackedObjectsEvent.class, PoseEvent.class, TickBroadcast.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: RemoteFusionSlam <port> <output file>");
+            return;
+        }
+        serve(Integer.parseInt(args[0]), args[1]);
+    }
+}
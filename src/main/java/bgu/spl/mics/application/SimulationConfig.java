@@ -0,0 +1,335 @@
+package bgu.spl.mics.application;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The configuration file of a simulation, in the format of the bundled example inputs.
+ * <p>
+ * The paths of the data files are resolved against the directory of the configuration file,
+ * and the output file is written to that directory.
+ * </p>
+ * <p>
+ * Optional keys:
+ * </p>
+ * <ul>
+ * <li>{@code BoundedRefinement}: whether landmarks are refined in place (default: false).</li>
+ * <li>{@code OccupancyGridFile}: the file the occupancy grid is exported to at the end of the run
+ * (default: not exported). Not supported with {@code --resume}.</li>
+ * <li>{@code SnapshotInterval}: the ticks between snapshots of the output (default: 0, no snapshots).</li>
+ * <li>{@code LiDarPool}: an object with the keys {@code threshold}, {@code max_extra_workers} and
+ * {@code idle_ticks} that scales the LiDAR workers with their backlog (default: a fixed set of workers).</li>
+ * <li>{@code VoxelSize}: the cell size landmark observations are downsampled with (default: 0, every
+ * point kept).</li>
+ * <li>{@code KeyframeInterval}: the frames from one full camera frame to the next when the cameras
+ * send deltas (default: 0, every frame sent in full).</li>
+ * <li>{@code CameraBlockTicks}: the ticks of camera data paged in at a time (default: 0, the whole
+ * camera data file is loaded up front).</li>
+ * <li>{@code HistoryFile}: the file the per tick counters are written to as CSV at the end of the run
+ * (default: not written).</li>
+ * </ul>
+ */
+public class SimulationConfig {
+    private static final String OUTPUT_FILE_NAME = "output_file.json";
+
+    private final Path directory; // the directory of the configuration file
+    private final List<CameraConfig> cameras;
+    private final String cameraDataPath;
+    private final List<LiDarConfig> liDarWorkers;
+    private final String liDarDataPath;
+    private final String poseDataPath;
+    private final int tickTime; // the duration of each tick in milliseconds
+    private final int duration; // the number of ticks of the simulation
+    private final boolean boundedRefinement; // whether landmarks are refined in place, optional
+    private final String occupancyGridPath; // the file to export the occupancy grid to, null if not exported
+    private final int snapshotInterval; // the ticks between snapshots of the output, 0 for none
+    private final LiDarPoolConfig liDarPool; // null if the LiDAR workers are not scaled
+    private final double voxelSize; // the cell size observations are downsampled with, 0 for none
+    private final int keyframeInterval; // the frames between two full camera frames, 0 for full frames only
+    private final int cameraBlockTicks; // the ticks of camera data paged in at a time, 0 to load it all
+    private final String historyPath; // the file to write the per tick counters to, null if not written
+
+    /**
+     * The configuration of a camera.
+     */
+    public static class CameraConfig {
+        private final int id;
+        private final int frequency;
+        private final String cameraKey; // the key of the camera in the camera data file
+
+        private CameraConfig(int id, int frequency, String cameraKey) {
+            this.id = id;
+            this.frequency = frequency;
+            this.cameraKey = cameraKey;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getFrequency() {
+            return frequency;
+        }
+
+        public String getCameraKey() {
+            return cameraKey;
+        }
+    }
+
+    /**
+     * The configuration of a LiDAR worker.
+     */
+    public static class LiDarConfig {
+        private final int id;
+        private final int frequency;
+
+        private LiDarConfig(int id, int frequency) {
+            this.id = id;
+            this.frequency = frequency;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getFrequency() {
+            return frequency;
+        }
+    }
+
+    /**
+     * The configuration of the LiDAR pool, see
+     * {@link bgu.spl.mics.application.services.LiDarPoolService}.
+     */
+    public static class LiDarPoolConfig {
+        private final int threshold;
+        private final int maxExtraWorkers;
+        private final int idleTicks;
+
+        private LiDarPoolConfig(int threshold, int maxExtraWorkers, int idleTicks) {
+            this.threshold = threshold;
+            this.maxExtraWorkers = maxExtraWorkers;
+            this.idleTicks = idleTicks;
+        }
+
+        public int getThreshold() {
+            return threshold;
+        }
+
+        public int getMaxExtraWorkers() {
+            return maxExtraWorkers;
+        }
+
+        public int getIdleTicks() {
+            return idleTicks;
+        }
+    }
+
+    private SimulationConfig(Path directory, JsonObject root) throws IOException {
+        this.directory = directory;
+        JsonObject camerasObject = object(root, "Cameras");
+        ArrayList<CameraConfig> cameraList = new ArrayList<CameraConfig>();
+        for (JsonElement element : array(camerasObject, "CamerasConfigurations")) {
+            JsonObject camera = element.getAsJsonObject();
+            cameraList.add(new CameraConfig(integer(camera, "id"), integer(camera, "frequency"),
+                    string(camera, "camera_key")));
+        }
+        this.cameras = Collections.unmodifiableList(cameraList);
+        this.cameraDataPath = resolve(string(camerasObject, "camera_datas_path"));
+        JsonObject workersObject = object(root, "LiDarWorkers");
+        ArrayList<LiDarConfig> workerList = new ArrayList<LiDarConfig>();
+        for (JsonElement element : array(workersObject, "LidarConfigurations")) {
+            JsonObject worker = element.getAsJsonObject();
+            workerList.add(new LiDarConfig(integer(worker, "id"), integer(worker, "frequency")));
+        }
+        this.liDarWorkers = Collections.unmodifiableList(workerList);
+        this.liDarDataPath = resolve(string(workersObject, "lidars_data_path"));
+        this.poseDataPath = resolve(string(root, "poseJsonFile"));
+        this.tickTime = integer(root, "TickTime");
+        this.duration = integer(root, "Duration");
+        this.boundedRefinement = root.has("BoundedRefinement") && root.get("BoundedRefinement").getAsBoolean();
+        this.occupancyGridPath = root.has("OccupancyGridFile") ? resolve(string(root, "OccupancyGridFile")) : null;
+        this.snapshotInterval = root.has("SnapshotInterval") ? integer(root, "SnapshotInterval") : 0;
+        if (snapshotInterval < 0) {
+            throw new IOException("SnapshotInterval must not be negative, received: " + snapshotInterval);
+        }
+        if (root.has("LiDarPool")) {
+            JsonObject pool = object(root, "LiDarPool");
+            this.liDarPool = new LiDarPoolConfig(integer(pool, "threshold"), integer(pool, "max_extra_workers"),
+                    integer(pool, "idle_ticks"));
+            if (liDarPool.getThreshold() <= 0 || liDarPool.getIdleTicks() <= 0) {
+                throw new IOException("LiDarPool threshold and idle_ticks must be positive");
+            }
+        } else {
+            this.liDarPool = null;
+        }
+        this.voxelSize = root.has("VoxelSize") ? get(root, "VoxelSize").getAsDouble() : 0;
+        if (!(voxelSize >= 0)) {
+            throw new IOException("VoxelSize must not be negative, received: " + voxelSize);
+        }
+        this.keyframeInterval = root.has("KeyframeInterval") ? integer(root, "KeyframeInterval") : 0;
+        if (keyframeInterval < 0) {
+            throw new IOException("KeyframeInterval must not be negative, received: " + keyframeInterval);
+        }
+        this.cameraBlockTicks = root.has("CameraBlockTicks") ? integer(root, "CameraBlockTicks") : 0;
+        if (cameraBlockTicks < 0) {
+            throw new IOException("CameraBlockTicks must not be negative, received: " + cameraBlockTicks);
+        }
+        this.historyPath = root.has("HistoryFile") ? resolve(string(root, "HistoryFile")) : null;
+    }
+
+    /**
+     * Reads a configuration file.
+     *
+     * @throws IOException if the file could not be read, is not JSON or misses a key.
+     */
+    public static SimulationConfig load(String filePath) throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return new SimulationConfig(path.getParent(), JsonParser.parseReader(reader).getAsJsonObject());
+        } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+            throw new IOException(filePath + " is not a valid configuration file: " + e.getMessage(), e);
+        }
+    }
+
+    public List<CameraConfig> getCameras() {
+        return cameras;
+    }
+
+    public String getCameraDataPath() {
+        return cameraDataPath;
+    }
+
+    public List<LiDarConfig> getLiDarWorkers() {
+        return liDarWorkers;
+    }
+
+    public String getLiDarDataPath() {
+        return liDarDataPath;
+    }
+
+    public String getPoseDataPath() {
+        return poseDataPath;
+    }
+
+    public int getTickTime() {
+        return tickTime;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return true if the landmarks are refined in place, see
+     *         {@link bgu.spl.mics.application.objects.FusionSlam#setBoundedRefinement(boolean)}.
+     */
+    public boolean isBoundedRefinement() {
+        return boundedRefinement;
+    }
+
+    /**
+     * @return The path the occupancy grid is exported to, null if it is not exported.
+     *         The grid is not checkpointed, a run exporting it cannot be resumed.
+     */
+    public String getOccupancyGridPath() {
+        return occupancyGridPath;
+    }
+
+    /**
+     * @return The number of ticks between snapshots of the output, 0 for no snapshots.
+     *         See {@link OutputWriter#onTick}.
+     */
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @return The configuration of the LiDAR pool, null if the LiDAR workers are not scaled.
+     *         The extra workers are not checkpointed, a resumed run starts with the configured ones.
+     */
+    public LiDarPoolConfig getLiDarPool() {
+        return liDarPool;
+    }
+
+    /**
+     * @return The cell size the observations of landmarks are downsampled with, 0 to keep every point,
+     *         see {@link bgu.spl.mics.application.objects.FusionSlam#setVoxelSize(double)}.
+     */
+    public double getVoxelSize() {
+        return voxelSize;
+    }
+
+    /**
+     * @return The number of frames from one full camera frame to the next, 0 if every frame is
+     *         sent in full, see {@link bgu.spl.mics.application.objects.Camera#setKeyframeInterval(int)}.
+     */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * @return The number of ticks of camera data paged in at a time, 0 if the camera data file is
+     *         loaded up front, see {@link bgu.spl.mics.application.objects.CameraDataIndex}.
+     */
+    public int getCameraBlockTicks() {
+        return cameraBlockTicks;
+    }
+
+    /**
+     * @return The path the per tick counters are written to, null if they are not written, see
+     *         {@link bgu.spl.mics.application.objects.StatisticalFolder#writeHistory(String)}.
+     *         The history is not checkpointed, a resumed run writes the ticks since it resumed.
+     */
+    public String getHistoryPath() {
+        return historyPath;
+    }
+
+    /**
+     * @return The path of the output file, in the directory of the configuration file.
+     */
+    public String getOutputPath() {
+        return directory.resolve(OUTPUT_FILE_NAME).toString();
+    }
+
+    private String resolve(String path) {
+        return directory.resolve(path).normalize().toString();
+    }
+
+    private static JsonElement get(JsonObject object, String key) throws IOException {
+        JsonElement value = object.get(key);
+        if (value == null || value.isJsonNull()) {
+            throw new IOException("missing configuration key: " + key);
+        }
+        return value;
+    }
+
+    private static JsonObject object(JsonObject object, String key) throws IOException {
+        return get(object, key).getAsJsonObject();
+    }
+
+    private static JsonArray array(JsonObject object, String key) throws IOException {
+        return get(object, key).getAsJsonArray();
+    }
+
+    private static String string(JsonObject object, String key) throws IOException {
+        return get(object, key).getAsString();
+    }
+
+    private static int integer(JsonObject object, String key) throws IOException {
+        return get(object, key).getAsInt();
+    }
+}
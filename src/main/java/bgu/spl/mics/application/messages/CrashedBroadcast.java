@@ -0,0 +1,37 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Broadcast;
+
+/**
+ * Broadcast by a sensor service whose sensor reported an error.
+ * Every service terminates when it receives it, and the error output is written in place
+ * of the output file.
+ */
+public class CrashedBroadcast implements Broadcast {
+
+    private final String error; // the error description reported by the sensor
+    private final String faultySensor; // the name of the service of the faulty sensor
+    private final int tick;
+
+    public CrashedBroadcast(String error, String faultySensor, int tick) {
+        this.error = error;
+        this.faultySensor = faultySensor;
+        this.tick = tick;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public String getFaultySensor() {
+        return faultySensor;
+    }
+
+    /**
+     * @return The tick the sensor reported the error at.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+}
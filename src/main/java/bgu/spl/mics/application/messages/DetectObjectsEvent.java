@@ -0,0 +1,88 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Event;
+import bgu.spl.mics.application.objects.FrameDelta;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+
+import java.util.ArrayDeque;
+
+/**
+ * Sent by a camera to the LiDAR workers with the objects it detected in a frame.
+ * Resolved to true once the objects were tracked and sent to the FusionSlam service.
+ * <p>
+ * A camera in delta mode sends only the {@link FrameDelta} from its previous frame, together
+ * with a reference to the event of that frame. The full frame is rebuilt from the chain of
+ * deltas back to the newest frame already known the first time {@link #getDetectedObjects()}
+ * is called, whichever LiDAR worker received the previous events. Every frame rebuilt on the
+ * way is kept by its event, so the chain is rebuilt once however many workers read it.
+ * </p>
+ */
+public class DetectObjectsEvent implements Event<Boolean> {
+
+    private StampedDetectedObjects detectedObjects; // the full frame, null until a delta is rebuilt
+    private DetectObjectsEvent previous; // the event of the previous frame, until this delta is rebuilt
+    private final FrameDelta delta; // null for a full frame
+
+    public DetectObjectsEvent(StampedDetectedObjects detectedObjects) {
+        this.detectedObjects = detectedObjects;
+        this.delta = null;
+    }
+
+    /**
+     * @param previous The event of the camera's previous frame.
+     * @param delta    The delta from the previous frame to this one.
+     */
+    public DetectObjectsEvent(DetectObjectsEvent previous, FrameDelta delta) {
+        this.previous = previous;
+        this.delta = delta;
+    }
+
+    /**
+     * @return true if this event was sent as a delta.
+     */
+    public boolean isDelta() {
+        return delta != null;
+    }
+
+    /**
+     * @return The delta this event was sent as, or null for a full frame.
+     */
+    public FrameDelta getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return The full frame, rebuilt on the first call for a delta. The chain is walked in a
+     *         loop, so its length is not bounded by the stack.
+     */
+    public StampedDetectedObjects getDetectedObjects() {
+        ArrayDeque<DetectObjectsEvent> chain = new ArrayDeque<DetectObjectsEvent>(); // newest delta last
+        DetectObjectsEvent event = this;
+        StampedDetectedObjects frame = null;
+        while (frame == null) {
+            DetectObjectsEvent next;
+            synchronized (event) {
+                frame = event.detectedObjects;
+                next = event.previous;
+            }
+            if (frame == null) {
+                chain.push(event);
+                event = next;
+            }
+        }
+        while (!chain.isEmpty()) {
+            frame = chain.pop().rebuild(frame);
+        }
+        return frame;
+    }
+
+    // Rebuilds the frame of this delta from the previous frame, unless another worker already did
+    private synchronized StampedDetectedObjects rebuild(StampedDetectedObjects previousFrame) {
+        if (detectedObjects == null) {
+            detectedObjects = delta.apply(previousFrame);
+            previous = null; // lets the older events of the chain go
+        }
+        return detectedObjects;
+    }
+
+}
@@ -0,0 +1,24 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Broadcast;
+
+/**
+ * Sent by the LiDAR pool to stop one of the LiDAR workers it started.
+ * The named worker terminates once it has sent every object it is still holding.
+ */
+public class LiDarRetireBroadcast implements Broadcast {
+
+    private final String serviceName;
+
+    public LiDarRetireBroadcast(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * @return The name of the LiDAR service to retire.
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+}
@@ -0,0 +1,155 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Message;
+import bgu.spl.mics.MessageCodec;
+import bgu.spl.mics.application.objects.CloudPoint;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary {@link MessageCodec} of the application messages.
+ * Coordinates are written as doubles and floats exactly as held, so decoded messages are
+ * identical to the sent ones.
+ */
+public class MessageCodecs implements MessageCodec {
+    private static final int TICK = 0;
+    private static final int POSE = 1;
+    private static final int TRACKED_OBJECTS = 2;
+    private static final int DETECT_OBJECTS = 3;
+    private static final int POSES = 4; // a PoseEvent that absorbed newer ones
+
+    @Override
+    public int tagOf(Message m) {
+        if (m instanceof TickBroadcast) {
+            return TICK;
+        }
+        if (m instanceof PoseEvent) {
+            return ((PoseEvent) m).getPoses().size() == 1 ? POSE : POSES;
+        }
+        if (m instanceof TrackedObjectsEvent) {
+            return TRACKED_OBJECTS;
+        }
+        if (m instanceof DetectObjectsEvent) {
+            return DETECT_OBJECTS;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean encodes(Class<? extends Message> type) {
+        return TickBroadcast.class.isAssignableFrom(type) || PoseEvent.class.isAssignableFrom(type)
+                || TrackedObjectsEvent.class.isAssignableFrom(type) || DetectObjectsEvent.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public int tickOf(Message m) {
+        return m instanceof TickBroadcast ? ((TickBroadcast) m).getTick() : -1;
+    }
+
+    @Override
+    public void encode(Message m, DataOutput out) throws IOException {
+        if (m instanceof TickBroadcast) {
+            out.writeInt(((TickBroadcast) m).getTick());
+        } else if (m instanceof PoseEvent && ((PoseEvent) m).getPoses().size() == 1) {
+            writePose(out, ((PoseEvent) m).getPose());
+        } else if (m instanceof PoseEvent) {
+            List<Pose> poses = ((PoseEvent) m).getPoses();
+            out.writeInt(poses.size());
+            for (Pose pose : poses) {
+                writePose(out, pose);
+            }
+        } else if (m instanceof TrackedObjectsEvent) {
+            List<TrackedObject> objects = ((TrackedObjectsEvent) m).getTrackedObjects();
+            out.writeInt(objects.size());
+            for (TrackedObject object : objects) {
+                writeTrackedObject(out, object);
+            }
+        } else if (m instanceof DetectObjectsEvent) {
+            StampedDetectedObjects frame = ((DetectObjectsEvent) m).getDetectedObjects();
+            out.writeInt(frame.getTime());
+            out.writeInt(frame.getDetectedObjects().size());
+            for (DetectedObject object : frame.getDetectedObjects()) {
+                out.writeUTF(object.getId());
+                out.writeUTF(object.getDescription());
+            }
+        } else {
+            throw new IllegalArgumentException("cannot encode " + m.getClass().getName());
+        }
+    }
+
+    @Override
+    public Message decode(int tag, DataInput in) throws IOException {
+        switch (tag) {
+            case TICK:
+                return new TickBroadcast(in.readInt());
+            case POSE:
+                return new PoseEvent(readPose(in));
+            case POSES:
+                int poses = in.readInt();
+                PoseEvent batch = new PoseEvent(readPose(in));
+                for (int i = 1; i < poses; i++) {
+                    batch.absorb(new PoseEvent(readPose(in)));
+                }
+                return batch;
+            case TRACKED_OBJECTS:
+                int size = in.readInt();
+                List<TrackedObject> objects = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    objects.add(readTrackedObject(in));
+                }
+                return new TrackedObjectsEvent(objects);
+            case DETECT_OBJECTS:
+                StampedDetectedObjects frame = new StampedDetectedObjects(in.readInt());
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    frame.getDetectedObjects().add(new DetectedObject(in.readUTF(), in.readUTF()));
+                }
+                return new DetectObjectsEvent(frame);
+            default:
+                throw new IOException("unknown message tag: " + tag);
+        }
+    }
+
+    static void writePose(DataOutput out, Pose pose) throws IOException {
+        out.writeInt(pose.getTime());
+        out.writeFloat(pose.getX());
+        out.writeFloat(pose.getY());
+        out.writeFloat(pose.getYaw());
+    }
+
+    static Pose readPose(DataInput in) throws IOException {
+        int time = in.readInt();
+        float x = in.readFloat();
+        float y = in.readFloat();
+        float yaw = in.readFloat();
+        return new Pose(x, y, yaw, time);
+    }
+
+    static void writeTrackedObject(DataOutput out, TrackedObject object) throws IOException {
+        out.writeUTF(object.getId());
+        out.writeInt(object.getTime());
+        out.writeUTF(object.getDescription());
+        out.writeInt(object.getPoints().size());
+        for (CloudPoint p : object.getPoints()) {
+            out.writeDouble(p.getX());
+            out.writeDouble(p.getY());
+        }
+    }
+
+    static TrackedObject readTrackedObject(DataInput in) throws IOException {
+        TrackedObject object = new TrackedObject(in.readUTF(), in.readInt(), in.readUTF());
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            object.getPoints().add(new CloudPoint(in.readDouble(), in.readDouble()));
+        }
+        return object;
+    }
+}
@@ -0,0 +1,49 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Coalescing;
+import bgu.spl.mics.Event;
+import bgu.spl.mics.application.objects.Pose;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sent by the PoseService at every tick with the pose the robot reached at that tick.
+ * <p>
+ * A PoseEvent sent while an earlier one still waits in the FusionSlam queue is appended to
+ * it, so a lagging FusionSlam service receives the poses it missed as one batch, in the order
+ * they were sent.
+ * </p>
+ */
+public class PoseEvent implements Event<Boolean>, Coalescing<PoseEvent> {
+
+    private final ArrayList<Pose> poses; // the pose of this event, followed by the poses of the absorbed events
+
+    public PoseEvent(Pose pose) {
+        this.poses = new ArrayList<>(1);
+        poses.add(pose);
+    }
+
+    /**
+     * @return The pose this event was sent with.
+     */
+    public Pose getPose() {
+        return poses.get(0);
+    }
+
+    /**
+     * @return The pose this event was sent with, followed by the poses of the events merged
+     *         into it, oldest first.
+     */
+    public List<Pose> getPoses() {
+        return Collections.unmodifiableList(poses);
+    }
+
+    @Override
+    public boolean absorb(PoseEvent newer) {
+        poses.addAll(newer.poses);
+        return true;
+    }
+
+}
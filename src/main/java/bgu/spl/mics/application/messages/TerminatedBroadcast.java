@@ -0,0 +1,24 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Broadcast;
+
+/**
+ * Broadcast by the TimeService once the last tick of the simulation was handled.
+ * Every service terminates when it receives it.
+ */
+public class TerminatedBroadcast implements Broadcast {
+
+    private final int tick;
+
+    public TerminatedBroadcast(int tick) {
+        this.tick = tick;
+    }
+
+    /**
+     * @return The last tick of the simulation.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+}
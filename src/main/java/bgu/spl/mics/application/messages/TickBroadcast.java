@@ -0,0 +1,20 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Broadcast;
+
+/**
+ * Broadcast by the TimeService at every tick of the simulation.
+ */
+public class TickBroadcast implements Broadcast {
+
+    private final int tick;
+
+    public TickBroadcast(int tick) {
+        this.tick = tick;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+}
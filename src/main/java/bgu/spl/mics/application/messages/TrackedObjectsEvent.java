@@ -0,0 +1,23 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.Event;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import java.util.List;
+
+/**
+ * Sent by a LiDAR worker to the FusionSlam service with the objects it tracked.
+ */
+public class TrackedObjectsEvent implements Event<Boolean> {
+
+    private final List<TrackedObject> trackedObjects;
+
+    public TrackedObjectsEvent(List<TrackedObject> trackedObjects) {
+        this.trackedObjects = trackedObjects;
+    }
+
+    public List<TrackedObject> getTrackedObjects() {
+        return trackedObjects;
+    }
+
+}
@@ -1,22 +1,234 @@
 package bgu.spl.mics.application.objects;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Represents a camera sensor on the robot.
  * Responsible for detecting objects in the environment.
+ * <p>
+ * The frames come either from a list held in memory or, for a camera created from a
+ * {@link CameraDataIndex}, from the blocks of the camera data file around the current tick:
+ * a block is read when one of its frames is first asked for and dropped once
+ * {@link #releaseFramesBefore(int)} passed it.
+ * </p>
+ * <p>
+ * In delta mode the camera describes every frame by its {@link FrameDelta} from the previous
+ * frame, except for a full keyframe every {@code keyframeInterval} frames.
+ * </p>
  */
 public class Camera {
+    private static final String ERROR_ID = "ERROR"; // the ID of the detected object reporting an error
+
     private int id;
     private int frequency;
     private STATUS status;
     private List<DetectedObject> detectedObjects;
+    private StampedDetectedObjects lastFrame; // the last frame sent by the camera, null if it sent none
+    private String error; // the error the camera reported, null while it works
+    private List<StampedDetectedObjects> frames; // the frames of the camera data, ordered by time, null if paged
+    private CameraDataIndex index; // the index the frames are paged in from, null if they are held in memory
+    private String cameraKey; // the key of the camera in the camera data file
+    private TreeMap<Integer, List<StampedDetectedObjects>> loadedBlocks; // the paged in blocks of frames
+    private int keyframeInterval; // the frames between two keyframes in delta mode, 0 for full frames only
+    private int framesSinceKeyframe;
 
     public Camera(int id, int frequency) {
+        this(id, frequency, new ArrayList<StampedDetectedObjects>());
+    }
+
+    /**
+     * @param frames The frames of the camera data, ordered by time.
+     */
+    public Camera(int id, int frequency, List<StampedDetectedObjects> frames) {
         this.id = id;
         this.frequency = frequency;
         this.status = STATUS.UP;
         this.detectedObjects = new ArrayList<DetectedObject>();
+        this.frames = frames;
+    }
+
+    /**
+     * Creates a camera whose frames are paged in from the camera data file.
+     *
+     * @param index     The index of the camera data file.
+     * @param cameraKey The key of the camera in the file.
+     */
+    public Camera(int id, int frequency, CameraDataIndex index, String cameraKey) {
+        this(id, frequency, null);
+        this.index = index;
+        this.cameraKey = cameraKey;
+        this.loadedBlocks = new TreeMap<Integer, List<StampedDetectedObjects>>();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public STATUS getStatus() {
+        return status;
+    }
+
+    public void setStatus(STATUS status) {
+        this.status = status;
+    }
+
+    /**
+     * @return The error the camera reported, null if it did not.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Marks the camera as failed, with the error it reported.
+     */
+    public void reportError(String error) {
+        this.error = error;
+        this.status = STATUS.ERROR;
+    }
+
+    /**
+     * @return The description of the error object of {@code frame}, or null if the camera
+     *         detected no error in it. A detected object with the ID {@code ERROR} reports an error.
+     */
+    public static String errorOf(StampedDetectedObjects frame) {
+        for (DetectedObject object : frame.getDetectedObjects()) {
+            if (object.getId().equals(ERROR_ID)) {
+                return object.getDescription();
+            }
+        }
+        return null;
+    }
+
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Switches the camera to delta mode, or back to full frames.
+     *
+     * @param keyframeInterval The number of frames from one keyframe to the next, 0 to send
+     *                         full frames only.
+     */
+    public void setKeyframeInterval(int keyframeInterval) {
+        if (keyframeInterval < 0) {
+            throw new IllegalArgumentException("keyframe interval must not be negative, received: "
+                    + keyframeInterval);
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.framesSinceKeyframe = 0;
+    }
+
+    /**
+     * @return The frame detected at {@code time}, or null if the camera detected nothing then.
+     * @throws IllegalStateException if the block of the frame could not be read from the camera data file.
+     */
+    public StampedDetectedObjects getFrame(int time) {
+        if (index == null) {
+            return find(frames, time);
+        }
+        int block = index.blockOf(time);
+        if (!index.hasBlock(cameraKey, block)) {
+            return null;
+        }
+        List<StampedDetectedObjects> blockFrames = loadedBlocks.get(block);
+        if (blockFrames == null) {
+            try {
+                blockFrames = index.loadBlock(cameraKey, block);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not read the camera data file " + index.getFilePath(), e);
+            }
+            loadedBlocks.put(block, blockFrames);
+        }
+        return find(blockFrames, time);
+    }
+
+    /**
+     * @return The time of the last frame of the camera data, Integer.MIN_VALUE if there is none.
+     */
+    public int getLastFrameTime() {
+        if (index != null) {
+            return index.getLastTime(cameraKey);
+        }
+        return frames.isEmpty() ? Integer.MIN_VALUE : frames.get(frames.size() - 1).getTime();
+    }
+
+    /**
+     * Lets go of the paged in frames detected before {@code time}, which will not be asked for again.
+     * Only whole blocks are dropped. Does nothing for a camera whose frames are held in memory.
+     */
+    public void releaseFramesBefore(int time) {
+        if (index == null) {
+            return;
+        }
+        int block = index.blockOf(time);
+        Iterator<Map.Entry<Integer, List<StampedDetectedObjects>>> it = loadedBlocks.entrySet().iterator();
+        while (it.hasNext() && it.next().getKey() < block) {
+            it.remove();
+        }
+    }
+
+    /**
+     * @return The number of blocks of frames currently paged in.
+     */
+    public int getLoadedBlockCount() {
+        return index == null ? 0 : loadedBlocks.size();
+    }
+
+    private static StampedDetectedObjects find(List<StampedDetectedObjects> frames, int time) {
+        int low = 0;
+        int high = frames.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midTime = frames.get(mid).getTime();
+            if (midTime < time) {
+                low = mid + 1;
+            } else if (midTime > time) {
+                high = mid - 1;
+            } else {
+                return frames.get(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns how the next sent frame is described: by its delta from the last sent frame, or
+     * in full if the camera is not in delta mode, has not sent a frame yet or is due a keyframe.
+     *
+     * @param frame The frame about to be sent.
+     * @return The delta from the last sent frame, or null to send {@code frame} in full.
+     */
+    public FrameDelta nextDelta(StampedDetectedObjects frame) {
+        StampedDetectedObjects last = getLastFrame();
+        if (keyframeInterval == 0 || last == null || framesSinceKeyframe + 1 >= keyframeInterval) {
+            framesSinceKeyframe = 0;
+            return null;
+        }
+        framesSinceKeyframe++;
+        return new FrameDelta(last.getDetectedObjects(), frame);
+    }
+
+    /**
+     * Records a frame sent by the camera, replacing the previous one.
+     */
+    public void recordFrame(StampedDetectedObjects frame) {
+        lastFrame = frame;
+    }
+
+    /**
+     * @return The last frame sent by the camera, or null if it sent none.
+     */
+    public StampedDetectedObjects getLastFrame() {
+        return lastFrame;
     }
-}
\ No newline at end of file
+}
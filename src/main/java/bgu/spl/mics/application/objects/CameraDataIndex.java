@@ -0,0 +1,215 @@
+package bgu.spl.mics.application.objects;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An index of the camera data file, to load the frames of a camera one block of ticks at a time.
+ * <p>
+ * The file {@code {"camera1": [{"time": t, "detectedObjects": [...]}, ...], ...}} is scanned
+ * once, without parsing the frames: for every camera key and every block of
+ * {@code blockTicks} ticks, the index keeps the byte range of the frames whose time falls in
+ * the block. A block is then read and parsed on its own by {@link #loadBlock(String, int)}.
+ * The frames of every camera key must be ordered by time.
+ * </p>
+ */
+public class CameraDataIndex {
+    private static final Gson gson = new Gson();
+
+    private final String filePath;
+    private final int blockTicks; // the number of ticks in a block
+    private final HashMap<String, TreeMap<Integer, long[]>> blocks; // camera key -> block -> {start, end} byte offsets
+    private final HashMap<String, Integer> lastTimes; // camera key -> the time of its last frame
+
+    private CameraDataIndex(String filePath, int blockTicks) {
+        this.filePath = filePath;
+        this.blockTicks = blockTicks;
+        this.blocks = new HashMap<String, TreeMap<Integer, long[]>>();
+        this.lastTimes = new HashMap<String, Integer>();
+    }
+
+    /**
+     * Indexes a camera data file in one streaming pass.
+     *
+     * @param filePath   The path of the camera data file.
+     * @param blockTicks The number of ticks in a block, block b holding the frames with
+     *                   {@code b * blockTicks <= time < (b + 1) * blockTicks}.
+     * @throws IOException if the file could not be read, or is not ordered by time.
+     */
+    public static CameraDataIndex build(String filePath, int blockTicks) throws IOException {
+        if (blockTicks <= 0) {
+            throw new IllegalArgumentException("block ticks must be positive, received: " + blockTicks);
+        }
+        CameraDataIndex index = new CameraDataIndex(filePath, blockTicks);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filePath), 1 << 16)) {
+            index.scan(in);
+        }
+        return index;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public int getBlockTicks() {
+        return blockTicks;
+    }
+
+    public Set<String> getCameraKeys() {
+        return blocks.keySet();
+    }
+
+    /**
+     * @return The time of the last frame of the camera, Integer.MIN_VALUE if it has none.
+     */
+    public int getLastTime(String cameraKey) {
+        Integer time = lastTimes.get(cameraKey);
+        return time != null ? time : Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return The block holding the frames of {@code time}.
+     */
+    public int blockOf(int time) {
+        return Math.floorDiv(time, blockTicks);
+    }
+
+    /**
+     * @return true if the camera has frames in {@code block}.
+     */
+    public boolean hasBlock(String cameraKey, int block) {
+        TreeMap<Integer, long[]> cameraBlocks = blocks.get(cameraKey);
+        return cameraBlocks != null && cameraBlocks.containsKey(block);
+    }
+
+    /**
+     * Reads and parses the frames of a camera in a block.
+     *
+     * @return The frames ordered by time, an empty list if the camera has none in the block.
+     * @throws IOException if the file could not be read or the frames could not be parsed.
+     */
+    public List<StampedDetectedObjects> loadBlock(String cameraKey, int block) throws IOException {
+        TreeMap<Integer, long[]> cameraBlocks = blocks.get(cameraKey);
+        long[] range = cameraBlocks == null ? null : cameraBlocks.get(block);
+        if (range == null) {
+            return new ArrayList<StampedDetectedObjects>();
+        }
+        byte[] bytes = new byte[(int) (range[1] - range[0])];
+        try (RandomAccessFile file = new RandomAccessFile(filePath, "r")) {
+            file.seek(range[0]);
+            file.readFully(bytes);
+        }
+        // the range runs from the first frame's '{' to the last frame's '}', commas included
+        String frames = "[" + new String(bytes, StandardCharsets.UTF_8) + "]";
+        try {
+            return gson.fromJson(frames, new TypeToken<List<StampedDetectedObjects>>() {
+            }.getType());
+        } catch (JsonParseException e) {
+            throw new IOException("could not parse the frames of " + cameraKey + " in block " + block, e);
+        }
+    }
+
+    // Tracks the nesting of the file byte by byte: camera keys are the strings at depth 1,
+    // frames are the objects at depth 2 and their "time" is read at depth 3.
+    private void scan(InputStream in) throws IOException {
+        ByteArrayOutputStream string = new ByteArrayOutputStream();
+        StringBuilder number = new StringBuilder();
+        String lastString = null; // the last string read, a key if a ':' follows
+        String cameraKey = null;
+        String frameKey = null; // the key of the current value in a frame
+        int frameTime = 0;
+        long frameStart = 0;
+        int lastBlock = Integer.MIN_VALUE; // the block of the previous frame of the camera
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        long pos = 0;
+        for (int b = in.read(); b >= 0; b = in.read(), pos++) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                    string.write(b);
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                    lastString = new String(string.toByteArray(), StandardCharsets.UTF_8);
+                } else {
+                    string.write(b);
+                }
+                continue;
+            }
+            if (number.length() > 0 && !isNumberByte(b)) {
+                frameTime = (int) Double.parseDouble(number.toString());
+                number.setLength(0);
+            }
+            switch (b) {
+                case '"':
+                    inString = true;
+                    string.reset();
+                    break;
+                case ':':
+                    if (depth == 1) {
+                        cameraKey = lastString;
+                        lastBlock = Integer.MIN_VALUE;
+                        blocks.put(cameraKey, new TreeMap<Integer, long[]>());
+                    } else if (depth == 3) {
+                        frameKey = lastString;
+                    }
+                    break;
+                case '{':
+                case '[':
+                    if (b == '{' && depth == 2) {
+                        frameStart = pos;
+                        frameKey = null;
+                    }
+                    depth++;
+                    break;
+                case '}':
+                case ']':
+                    depth--;
+                    if (b == '}' && depth == 2) {
+                        lastBlock = addFrame(cameraKey, frameTime, frameStart, pos + 1, lastBlock);
+                    }
+                    break;
+                default:
+                    if (depth == 3 && "time".equals(frameKey) && isNumberByte(b)) {
+                        number.append((char) b);
+                    }
+            }
+        }
+    }
+
+    private int addFrame(String cameraKey, int time, long start, long end, int lastBlock) throws IOException {
+        int block = blockOf(time);
+        TreeMap<Integer, long[]> cameraBlocks = blocks.get(cameraKey);
+        long[] range = cameraBlocks.get(block);
+        if (range == null && block > lastBlock) {
+            cameraBlocks.put(block, new long[] { start, end });
+        } else if (block == lastBlock) {
+            range[1] = end;
+        } else {
+            throw new IOException("the frames of " + cameraKey + " are not ordered by time, at time " + time);
+        }
+        lastTimes.merge(cameraKey, time, Math::max);
+        return block;
+    }
+
+    private static boolean isNumberByte(int b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+}
@@ -0,0 +1,342 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only binary log of checkpoints of a simulation, to resume a run that died
+ * instead of starting it again from tick 0.
+ * <p>
+ * A checkpoint is taken at the end of a tick, once the services handled every message of the
+ * tick. It holds only what changed since the previous checkpoint: the statistics, the poses
+ * added to the map, the landmarks added and their new observations, the tracked objects waiting
+ * for a pose, and the state of every registered {@link Checkpointable}, e.g. the sensor cursors
+ * and the detections waiting for the LiDAR frequency. The thread taking the checkpoint only
+ * encodes the changes, the file is appended to on a background thread, so the simulation goes
+ * on while a checkpoint is written. The occupancy grid is not checkpointed.
+ * </p>
+ * <p>
+ * The file holds the magic {@code CKPT} and a version, then one record per checkpoint:
+ * {@code int tick, int length, byte[length] body, long crc32(body)}. A record cut short by a
+ * crash fails its length or checksum and is dropped on resume, with anything after it.
+ * </p>
+ */
+public class CheckpointLog implements Closeable {
+    private static final int MAGIC = 0x434B5054; // "CKPT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 16; // tick, length and checksum
+
+    private final Path filePath;
+    private final int interval; // the number of ticks between checkpoints
+    private final FusionSlam fusionSlam;
+    private final StatisticalFolder statistics;
+    private final LinkedHashMap<String, Checkpointable> participants; // the registered states by name
+    private final LinkedHashMap<String, byte[]> restored; // states read on resume whose owner did not register yet
+    private final ExecutorService writer; // appends the records in the order they were taken
+    private FileChannel channel;
+    private volatile IOException failure; // the first append that failed
+
+    /**
+     * @param filePath   The path of the checkpoint file.
+     * @param interval   The number of ticks between checkpoints.
+     * @param fusionSlam The map to checkpoint.
+     * @param statistics The statistics to checkpoint.
+     */
+    public CheckpointLog(String filePath, int interval, FusionSlam fusionSlam, StatisticalFolder statistics) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("checkpoint interval must be positive, received: " + interval);
+        }
+        this.filePath = Paths.get(filePath);
+        this.interval = interval;
+        this.fusionSlam = fusionSlam;
+        this.statistics = statistics;
+        this.participants = new LinkedHashMap<String, Checkpointable>();
+        this.restored = new LinkedHashMap<String, byte[]>();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CheckpointWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the log, before the services start.
+     *
+     * @param resume true to apply the checkpoints already in the file to the map and the
+     *               statistics and append after them, false to start a new log.
+     * @return The tick of the newest checkpoint applied, 0 if there is none. The simulation
+     *         goes on from the next tick.
+     * @throws IOException if the file could not be read or written, or is not a checkpoint file.
+     */
+    public synchronized int open(boolean resume) throws IOException {
+        fusionSlam.enableCheckpoints();
+        long validEnd = 0;
+        int tick = 0;
+        if (resume && Files.exists(filePath) && Files.size(filePath) > 0) {
+            long[] end = new long[1];
+            tick = replay(end);
+            validEnd = end[0];
+        }
+        channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+        if (validEnd == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+        return tick;
+    }
+
+    /**
+     * @return true if a checkpoint is due at the end of {@code tick}.
+     */
+    public boolean isDue(int tick) {
+        return tick % interval == 0;
+    }
+
+    /**
+     * Registers a part of the state, restoring it first if the resumed checkpoint holds it.
+     *
+     * @throws IllegalStateException if the restored state could not be read.
+     */
+    public synchronized void register(Checkpointable participant) {
+        String name = participant.getCheckpointName();
+        byte[] state = restored.remove(name);
+        if (state != null) {
+            try {
+                participant.restoreCheckpoint(new DataInputStream(new ByteArrayInputStream(state)));
+            } catch (IOException e) {
+                throw new IllegalStateException("the checkpoint of " + name + " could not be restored", e);
+            }
+        }
+        participants.put(name, participant);
+    }
+
+    /**
+     * Takes a checkpoint at the end of {@code tick}, while no service is handling a message.
+     * The changes are encoded by the calling thread and appended to the file in the background.
+     *
+     * @throws IOException if a previous checkpoint could not be written.
+     */
+    public synchronized void capture(int tick) throws IOException {
+        checkFailure();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        statistics.writeCheckpoint(out);
+        fusionSlam.writeCheckpoint(out);
+        out.writeInt(participants.size() + restored.size());
+        for (Checkpointable participant : participants.values()) {
+            ByteArrayOutputStream state = new ByteArrayOutputStream();
+            DataOutputStream stateOut = new DataOutputStream(state);
+            participant.writeCheckpoint(stateOut);
+            stateOut.flush();
+            writePart(out, participant.getCheckpointName(), state.toByteArray());
+        }
+        // states whose owner has not registered since the resume are carried over
+        for (Map.Entry<String, byte[]> entry : restored.entrySet()) {
+            writePart(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+        byte[] body = bytes.toByteArray();
+        writer.execute(() -> append(tick, body));
+    }
+
+    /**
+     * Waits for the checkpoints taken to be written and closes the file.
+     *
+     * @throws IOException if a checkpoint could not be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        checkFailure();
+    }
+
+    public String getFilePath() {
+        return filePath.toString();
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    private void append(int tick, byte[] body) {
+        if (failure != null) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + body.length);
+        record.putInt(tick).putInt(body.length).put(body).putLong(crc.getValue()).flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw new IOException("could not write a checkpoint to " + filePath, e);
+        }
+    }
+
+    // Applies every complete record in order, end[0] is set to the end of the last one
+    private int replay(long[] end) throws IOException {
+        long size = Files.size(filePath);
+        int tick = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(filePath), 1 << 16))) {
+            if (size < HEADER_SIZE || in.readInt() != MAGIC) {
+                throw new IOException(filePath + " is not a checkpoint file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported checkpoint version " + version + " in " + filePath);
+            }
+            long position = HEADER_SIZE;
+            end[0] = position;
+            while (size - position >= RECORD_OVERHEAD) {
+                int recordTick = in.readInt();
+                int length = in.readInt();
+                if (length < 0 || length > size - position - RECORD_OVERHEAD) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if (in.readLong() != crc.getValue()) {
+                    break;
+                }
+                apply(body);
+                tick = recordTick;
+                position += RECORD_OVERHEAD + length;
+                end[0] = position;
+            }
+        } catch (EOFException e) {
+            // a record cut short, the records before it were applied
+        }
+        return tick;
+    }
+
+    private void apply(byte[] body) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        statistics.readCheckpoint(in);
+        fusionSlam.readCheckpoint(in);
+        int parts = in.readInt();
+        for (int i = 0; i < parts; i++) {
+            String name = in.readUTF();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            restored.put(name, state);
+        }
+    }
+
+    private static void writePart(DataOutputStream out, String name, byte[] state) throws IOException {
+        out.writeUTF(name);
+        out.writeInt(state.length);
+        out.write(state);
+    }
+
+    /**
+     * Writes a frame of detected objects, for the {@link Checkpointable} states holding frames.
+     */
+    public static void writeFrame(DataOutputStream out, StampedDetectedObjects frame) throws IOException {
+        out.writeInt(frame.getTime());
+        out.writeInt(frame.getDetectedObjects().size());
+        for (DetectedObject object : frame.getDetectedObjects()) {
+            out.writeUTF(object.getId());
+            out.writeUTF(object.getDescription());
+        }
+    }
+
+    /**
+     * Reads a frame written by {@link #writeFrame(DataOutputStream, StampedDetectedObjects)}.
+     */
+    public static StampedDetectedObjects readFrame(DataInputStream in) throws IOException {
+        StampedDetectedObjects frame = new StampedDetectedObjects(in.readInt());
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            frame.getDetectedObjects().add(new DetectedObject(in.readUTF(), in.readUTF()));
+        }
+        return frame;
+    }
+
+    static void writeTrackedObject(DataOutputStream out, TrackedObject object) throws IOException {
+        out.writeUTF(object.getId());
+        out.writeInt(object.getTime());
+        out.writeUTF(object.getDescription());
+        writePoints(out, object.getPoints());
+    }
+
+    static TrackedObject readTrackedObject(DataInputStream in) throws IOException {
+        TrackedObject object = new TrackedObject(in.readUTF(), in.readInt(), in.readUTF());
+        object.getPoints().addAll(readPoints(in));
+        return object;
+    }
+
+    static void writePose(DataOutputStream out, Pose pose) throws IOException {
+        out.writeFloat(pose.getX());
+        out.writeFloat(pose.getY());
+        out.writeFloat(pose.getYaw());
+        out.writeInt(pose.getTime());
+    }
+
+    static Pose readPose(DataInputStream in) throws IOException {
+        return new Pose(in.readFloat(), in.readFloat(), in.readFloat(), in.readInt());
+    }
+
+    static void writePoints(DataOutputStream out, List<CloudPoint> points) throws IOException {
+        out.writeInt(points.size());
+        for (CloudPoint p : points) {
+            out.writeDouble(p.getX());
+            out.writeDouble(p.getY());
+        }
+    }
+
+    static ArrayList<CloudPoint> readPoints(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        ArrayList<CloudPoint> points = new ArrayList<CloudPoint>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new CloudPoint(in.readDouble(), in.readDouble()));
+        }
+        return points;
+    }
+}
@@ -0,0 +1,28 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A part of the simulation state saved in every checkpoint of a {@link CheckpointLog},
+ * e.g. the cursor of a sensor service into its input data.
+ */
+public interface Checkpointable {
+
+    /**
+     * @return The name the state is saved under, unique in the simulation.
+     */
+    String getCheckpointName();
+
+    /**
+     * Writes the current state. Called by the thread taking the checkpoint, while the owner
+     * of the state is between ticks.
+     */
+    void writeCheckpoint(DataOutputStream out) throws IOException;
+
+    /**
+     * Restores a state written by {@link #writeCheckpoint(DataOutputStream)}.
+     */
+    void restoreCheckpoint(DataInputStream in) throws IOException;
+}
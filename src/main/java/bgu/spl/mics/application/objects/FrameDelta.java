@@ -0,0 +1,91 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The difference between two consecutive frames of a camera: the objects that appeared,
+ * with their position in the new frame, and the IDs of the objects that disappeared.
+ * An object whose description changed counts as removed and added again.
+ */
+public class FrameDelta {
+    private final int time; // the time of the new frame
+    private final ArrayList<DetectedObject> added; // the appeared objects, in frame order
+    private final int[] addedIndices; // the position of every appeared object in the new frame
+    private final ArrayList<String> removed; // the IDs of the disappeared objects
+
+    /**
+     * Computes the delta from {@code previous} to {@code next}.
+     */
+    public FrameDelta(List<DetectedObject> previous, StampedDetectedObjects next) {
+        HashSet<String> previousKeys = new HashSet<String>();
+        for (DetectedObject object : previous) {
+            previousKeys.add(key(object));
+        }
+        HashSet<String> nextKeys = new HashSet<String>();
+        this.time = next.getTime();
+        this.added = new ArrayList<DetectedObject>();
+        ArrayList<DetectedObject> objects = next.getDetectedObjects();
+        int[] indices = new int[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            DetectedObject object = objects.get(i);
+            nextKeys.add(key(object));
+            if (!previousKeys.contains(key(object))) {
+                indices[added.size()] = i;
+                added.add(object);
+            }
+        }
+        this.addedIndices = Arrays.copyOf(indices, added.size());
+        this.removed = new ArrayList<String>();
+        for (DetectedObject object : previous) {
+            if (!nextKeys.contains(key(object))) {
+                removed.add(object.getId());
+            }
+        }
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public List<DetectedObject> getAdded() {
+        return added;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the new frame holds the same objects as the previous one.
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Rebuilds the new frame from the previous one. The objects kept from the previous frame
+     * keep their order and the appeared objects are put back at their position, so the
+     * rebuilt frame equals the original one whenever the kept objects did not change order.
+     */
+    public StampedDetectedObjects apply(StampedDetectedObjects previous) {
+        HashSet<String> removedIds = new HashSet<String>(removed);
+        StampedDetectedObjects frame = new StampedDetectedObjects(time);
+        ArrayList<DetectedObject> objects = frame.getDetectedObjects();
+        for (DetectedObject object : previous.getDetectedObjects()) {
+            if (!removedIds.contains(object.getId())) {
+                objects.add(object);
+            }
+        }
+        for (int i = 0; i < added.size(); i++) {
+            objects.add(Math.min(addedIndices[i], objects.size()), added.get(i));
+        }
+        return frame;
+    }
+
+    private static String key(DetectedObject object) {
+        return object.getId() + '\u0000' + object.getDescription();
+    }
+}
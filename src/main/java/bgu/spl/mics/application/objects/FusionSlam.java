@@ -1,6 +1,13 @@
 package bgu.spl.mics.application.objects;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeMap;
 
 /**
  * Manages the fusion of sensor data for simultaneous localization and mapping
@@ -8,15 +15,36 @@ import java.util.ArrayList;
  * Combines data from multiple sensors (e.g., LiDAR, camera) to build and update
  * a global map.
  * Implements the Singleton pattern to ensure a single instance of FusionSlam
- * exists.
+ * exists per simulation, see {@link SimulationContext}.
  */
 public class FusionSlam {
     private ArrayList<LandMark> landmarks;
+    private HashMap<String, LandMark> landmarksById; // index of the landmarks by their object ID
+    private LandMarkIndex landmarkIndex; // spatial index of the landmarks for nearest and radius queries
+    private OccupancyGrid occupancyGrid; // occupancy of every cloud point ever fused into the map
     private ArrayList<Pose> poses;
+    private HashMap<Integer, Pose> posesByTime; // index of the poses by the tick they were reached at
+    private HashMap<Integer, ArrayList<PendingObject>> pending; // tracked objects waiting for the pose of their tick
+    private volatile int pendingDepth; // the number of tracked objects currently waiting for a pose
+    private volatile int maxPendingDepth; // the highest pending depth seen so far
+    private volatile long releasedCount; // the number of tracked objects released from the pending buffer
+    private volatile long totalPendingWaitNanos; // the total time released objects spent in the pending buffer
+    private volatile int landmarkCount; // the number of landmarks in the map, readable without locking
+    private boolean boundedRefinement; // whether new landmarks are refined in place, see LandMark
+    private VoxelGrid voxelGrid; // the grid observations are downsampled on, null to keep every point
+    private LinkedHashSet<LandMark> refinedSinceCheckpoint; // the landmarks refined since the last checkpoint, null if not checkpointed
+    private int checkpointedPoses; // the poses already written to a checkpoint
+    private int checkpointedLandmarks; // the landmarks already written to a checkpoint
 
-    private FusionSlam() {
+    // package-private so that every SimulationContext can hold its own map
+    FusionSlam() {
         this.landmarks = new ArrayList<LandMark>();
+        this.landmarksById = new HashMap<String, LandMark>();
+        this.landmarkIndex = new LandMarkIndex(1.0);
+        this.occupancyGrid = new OccupancyGrid(0.05);
         this.poses = new ArrayList<Pose>();
+        this.posesByTime = new HashMap<Integer, Pose>();
+        this.pending = new HashMap<Integer, ArrayList<PendingObject>>();
     }
 
     // Singleton instance holder
@@ -24,7 +52,349 @@ public class FusionSlam {
         private static final FusionSlam instance = new FusionSlam();
     }
 
+    /**
+     * @return The map of the simulation context the calling thread runs in, or the global map.
+     */
     public static FusionSlam getInstance() {
-        return FusionSlamHolder.instance;
+        SimulationContext context = SimulationContext.current();
+        return context != null ? context.getFusionSlam() : FusionSlamHolder.instance;
+    }
+
+    /**
+     * Visits the landmarks of the map, see {@link #forEachLandmark(LandMarkVisitor)}.
+     */
+    public interface LandMarkVisitor {
+        void visit(LandMark landMark) throws IOException;
+    }
+
+    // A tracked object held back until the pose of its tick arrives
+    private static class PendingObject {
+        private final TrackedObject object;
+        private final long heldAt;
+
+        private PendingObject(TrackedObject object, long heldAt) {
+            this.object = object;
+            this.heldAt = heldAt;
+        }
+    }
+
+    /**
+     * Adds a pose and releases the tracked objects that were waiting for it.
+     * Only the bucket of the pose's tick is touched, so objects waiting on
+     * other ticks are never rescanned.
+     *
+     * @param pose The pose reached by the robot.
+     * @return The tracked objects that were waiting for this pose, in arrival order.
+     */
+    public synchronized List<TrackedObject> addPose(Pose pose) {
+        poses.add(pose);
+        posesByTime.put(pose.getTime(), pose);
+        ArrayList<PendingObject> bucket = pending.remove(pose.getTime());
+        ArrayList<TrackedObject> released = new ArrayList<TrackedObject>();
+        if (bucket == null) {
+            return released;
+        }
+        long now = System.nanoTime();
+        long waited = 0;
+        for (PendingObject p : bucket) {
+            released.add(p.object);
+            waited += now - p.heldAt;
+        }
+        pendingDepth -= bucket.size();
+        releasedCount += bucket.size();
+        totalPendingWaitNanos += waited;
+        return released;
+    }
+
+    /**
+     * @param time The tick to look up.
+     * @return The pose reached at {@code time}, or null if it has not arrived yet.
+     */
+    public synchronized Pose getPose(int time) {
+        return posesByTime.get(time);
+    }
+
+    /**
+     * Holds a tracked object until the pose of its tick arrives.
+     * If that pose is already known the object is not held and false is returned,
+     * so the caller can process it right away.
+     *
+     * @param object The tracked object waiting for a pose.
+     * @return true if the object was held, false if its pose is already available.
+     */
+    public synchronized boolean holdUntilPose(TrackedObject object) {
+        if (posesByTime.containsKey(object.getTime())) {
+            return false;
+        }
+        ArrayList<PendingObject> bucket = pending.get(object.getTime());
+        if (bucket == null) {
+            bucket = new ArrayList<PendingObject>();
+            pending.put(object.getTime(), bucket);
+        }
+        bucket.add(new PendingObject(object, System.nanoTime()));
+        pendingDepth++;
+        if (pendingDepth > maxPendingDepth) {
+            maxPendingDepth = pendingDepth;
+        }
+        return true;
+    }
+
+    /**
+     * Drops every tracked object still waiting for a pose, once no pose will arrive any more,
+     * e.g. when the simulation terminates.
+     *
+     * @return The dropped objects, ordered by the tick they wait for.
+     */
+    public synchronized List<TrackedObject> evictPending() {
+        ArrayList<TrackedObject> evicted = new ArrayList<TrackedObject>(pendingDepth);
+        for (ArrayList<PendingObject> bucket : new TreeMap<Integer, ArrayList<PendingObject>>(pending).values()) {
+            for (PendingObject p : bucket) {
+                evicted.add(p.object);
+            }
+        }
+        pending.clear();
+        pendingDepth = 0;
+        return evicted;
+    }
+
+    /**
+     * Sets the refinement mode of landmarks created from now on.
+     *
+     * @param boundedRefinement true to refine the points in place without allocating,
+     *                          false to replace every refined point, see {@link LandMark}.
+     */
+    public synchronized void setBoundedRefinement(boolean boundedRefinement) {
+        this.boundedRefinement = boundedRefinement;
+    }
+
+    /**
+     * Sets the cell size the observations of landmarks are downsampled with, in the charging
+     * station's coordinate system. Must be set before the first observation is fused.
+     * The LiDAR workers do not downsample: their points are in the robot's coordinate system,
+     * whose cells move with the robot, so the same place would fall in different cells from
+     * one observation to the next and could not be matched to its slot.
+     *
+     * @param voxelSize The cell size, 0 to keep every observed point. See {@link VoxelGrid}.
+     */
+    public synchronized void setVoxelSize(double voxelSize) {
+        if (voxelSize < 0) {
+            throw new IllegalArgumentException("voxel size must not be negative, received: " + voxelSize);
+        }
+        this.voxelGrid = voxelSize > 0 ? new VoxelGrid(voxelSize) : null;
+    }
+
+    /**
+     * Transforms the points of a tracked object to the charging station's coordinate system
+     * and adds them to the map, either as a new landmark or as a refinement of an existing one.
+     *
+     * @param object The tracked object, in the robot's coordinate system.
+     * @param pose   The pose of the robot at the time the object was tracked.
+     * @return true if a new landmark was added to the map.
+     */
+    public synchronized boolean processTrackedObject(TrackedObject object, Pose pose) {
+        ArrayList<CloudPoint> global = toGlobal(object.getPoints(), pose);
+        occupancyGrid.addPoints(global);
+        LandMark landMark = landmarksById.get(object.getId());
+        boolean isNew = landMark == null;
+        if (isNew) {
+            landMark = new LandMark(object.getId(), object.getDescription(), boundedRefinement);
+            landmarks.add(landMark);
+            landmarksById.put(object.getId(), landMark);
+            landmarkCount++;
+        }
+        if (voxelGrid != null) {
+            landMark.refine(global, voxelGrid);
+        } else {
+            landMark.refine(global);
+        }
+        landmarkIndex.update(landMark);
+        if (refinedSinceCheckpoint != null) {
+            refinedSinceCheckpoint.add(landMark);
+        }
+        return isNew;
+    }
+
+    /**
+     * Finds the landmarks closest to a position in the charging station's coordinate system.
+     * May be called concurrently with the map updates.
+     *
+     * @param k The maximal number of landmarks to return.
+     * @return Up to {@code k} landmarks, closest first.
+     */
+    public List<LandMarkIndex.Neighbor> getNearestLandmarks(double x, double y, int k) {
+        return landmarkIndex.nearest(x, y, k);
+    }
+
+    /**
+     * Finds the landmarks that have a point within {@code radius} of a position in the
+     * charging station's coordinate system. May be called concurrently with the map updates.
+     *
+     * @return The landmarks found, closest first.
+     */
+    public List<LandMarkIndex.Neighbor> getLandmarksWithin(double x, double y, double radius) {
+        return landmarkIndex.withinRadius(x, y, radius);
+    }
+
+    // Starts tracking the changes between checkpoints, see CheckpointLog
+    synchronized void enableCheckpoints() {
+        if (refinedSinceCheckpoint == null) {
+            refinedSinceCheckpoint = new LinkedHashSet<LandMark>();
+        }
+    }
+
+    // Writes what changed since the previous checkpoint: the new poses, the new landmarks,
+    // the refinements, and every tracked object waiting for a pose
+    synchronized void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(poses.size() - checkpointedPoses);
+        for (int i = checkpointedPoses; i < poses.size(); i++) {
+            CheckpointLog.writePose(out, poses.get(i));
+        }
+        checkpointedPoses = poses.size();
+        out.writeInt(landmarks.size() - checkpointedLandmarks);
+        for (int i = checkpointedLandmarks; i < landmarks.size(); i++) {
+            LandMark landMark = landmarks.get(i);
+            out.writeUTF(landMark.getId());
+            out.writeUTF(landMark.getDescription());
+            out.writeBoolean(landMark.isBounded());
+        }
+        checkpointedLandmarks = landmarks.size();
+        out.writeInt(refinedSinceCheckpoint.size());
+        for (LandMark landMark : refinedSinceCheckpoint) {
+            out.writeUTF(landMark.getId());
+            landMark.writeCheckpoint(out);
+        }
+        refinedSinceCheckpoint.clear();
+        out.writeInt(pendingDepth);
+        for (ArrayList<PendingObject> bucket : pending.values()) {
+            for (PendingObject p : bucket) {
+                CheckpointLog.writeTrackedObject(out, p.object);
+            }
+        }
+    }
+
+    // Applies a checkpoint written by writeCheckpoint, the checkpoints are applied in order
+    synchronized void readCheckpoint(DataInputStream in) throws IOException {
+        int newPoses = in.readInt();
+        for (int i = 0; i < newPoses; i++) {
+            Pose pose = CheckpointLog.readPose(in);
+            poses.add(pose);
+            posesByTime.put(pose.getTime(), pose);
+        }
+        checkpointedPoses = poses.size();
+        int newLandmarks = in.readInt();
+        for (int i = 0; i < newLandmarks; i++) {
+            LandMark landMark = new LandMark(in.readUTF(), in.readUTF(), in.readBoolean());
+            landmarks.add(landMark);
+            landmarksById.put(landMark.getId(), landMark);
+        }
+        landmarkCount = landmarks.size();
+        checkpointedLandmarks = landmarks.size();
+        int refined = in.readInt();
+        for (int i = 0; i < refined; i++) {
+            String id = in.readUTF();
+            LandMark landMark = landmarksById.get(id);
+            if (landMark == null) {
+                throw new IOException("the checkpoint refines the unknown landmark " + id);
+            }
+            landMark.readCheckpoint(in);
+            landmarkIndex.update(landMark);
+        }
+        pending.clear();
+        pendingDepth = 0;
+        int held = in.readInt();
+        for (int i = 0; i < held; i++) {
+            holdUntilPose(CheckpointLog.readTrackedObject(in));
+        }
+    }
+
+    private static ArrayList<CloudPoint> toGlobal(List<CloudPoint> local, Pose pose) {
+        // converted as by Math.toRadians of Java 8, later versions round differently
+        double yaw = pose.getYaw() / 180.0 * Math.PI;
+        double cos = Math.cos(yaw);
+        double sin = Math.sin(yaw);
+        ArrayList<CloudPoint> global = new ArrayList<CloudPoint>(local.size());
+        for (CloudPoint p : local) {
+            global.add(new CloudPoint(cos * p.getX() - sin * p.getY() + pose.getX(),
+                    sin * p.getX() + cos * p.getY() + pose.getY()));
+        }
+        return global;
+    }
+
+    public OccupancyGrid getOccupancyGrid() {
+        return occupancyGrid;
+    }
+
+    /**
+     * Writes the occupancy grid built so far to a binary file, see {@link OccupancyGrid#export(String)}.
+     * Meant to be called once the fusion has finished.
+     *
+     * @param filePath The path of the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public void exportOccupancyGrid(String filePath) throws IOException {
+        occupancyGrid.export(filePath);
+    }
+
+    public synchronized LandMark getLandmark(String id) {
+        return landmarksById.get(id);
+    }
+
+    /**
+     * @return A copy of the poses received so far, safe to read while the map is updated.
+     */
+    public synchronized ArrayList<Pose> getPoses() {
+        return new ArrayList<Pose>(poses);
+    }
+
+    /**
+     * @return A copy of the landmarks and their points, safe to read while the map is updated.
+     */
+    public synchronized ArrayList<LandMark> getLandmarks() {
+        ArrayList<LandMark> copy = new ArrayList<LandMark>(landmarks.size());
+        for (LandMark landMark : landmarks) {
+            copy.add(landMark.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Visits every landmark in the order it was added, under the lock of the map, so the
+     * landmarks can be read without copying them while the map is updated.
+     *
+     * @throws IOException if the visitor threw.
+     */
+    public synchronized void forEachLandmark(LandMarkVisitor visitor) throws IOException {
+        for (LandMark landMark : landmarks) {
+            visitor.visit(landMark);
+        }
+    }
+
+    public int getLandmarkCount() {
+        return landmarkCount;
+    }
+
+    public int getPendingDepth() {
+        return pendingDepth;
+    }
+
+    public int getMaxPendingDepth() {
+        return maxPendingDepth;
+    }
+
+    public long getReleasedCount() {
+        return releasedCount;
+    }
+
+    public long getTotalPendingWaitNanos() {
+        return totalPendingWaitNanos;
+    }
+
+    /**
+     * @return The average time in milliseconds a released object waited for its pose,
+     *         or 0 if nothing was held yet.
+     */
+    public double getAveragePendingWaitMillis() {
+        long released = releasedCount;
+        return released == 0 ? 0 : totalPendingWaitNanos / 1e6 / released;
     }
 }
@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.objects;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents the robot's GPS and IMU system.
@@ -16,4 +17,70 @@ public class GPSIMU {
         this.status = STATUS.UP;
         this.poses = new ArrayList<Pose>();
     }
+
+    /**
+     * @param poses The time-stamped poses loaded from the pose data file, ordered by time.
+     */
+    public GPSIMU(ArrayList<Pose> poses) {
+        this.currentTick = 0;
+        this.status = STATUS.UP;
+        this.poses = poses;
+    }
+
+    public int getCurrentTick() {
+        return currentTick;
+    }
+
+    public void setCurrentTick(int currentTick) {
+        this.currentTick = currentTick;
+    }
+
+    public STATUS getStatus() {
+        return status;
+    }
+
+    public void setStatus(STATUS status) {
+        this.status = status;
+    }
+
+    /**
+     * @return The pose reached at {@code time}, or null if there is none.
+     */
+    public Pose getPose(int time) {
+        int index = countPosesUpTo(time) - 1;
+        if (index >= 0 && poses.get(index).getTime() == time) {
+            return poses.get(index);
+        }
+        return null;
+    }
+
+    /**
+     * @return The time of the last pose, Integer.MIN_VALUE if there is none.
+     */
+    public int getLastPoseTime() {
+        return poses.isEmpty() ? Integer.MIN_VALUE : poses.get(poses.size() - 1).getTime();
+    }
+
+    /**
+     * Returns the poses reached up to and including {@code time}.
+     * The result is a view over the loaded poses, nothing is copied.
+     */
+    public List<Pose> getPosesUpTo(int time) {
+        return poses.subList(0, countPosesUpTo(time));
+    }
+
+    // Binary search over the time-ordered poses
+    private int countPosesUpTo(int time) {
+        int low = 0;
+        int high = poses.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (poses.get(mid).getTime() <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 }
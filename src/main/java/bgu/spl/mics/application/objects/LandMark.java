@@ -1,20 +1,212 @@
 package bgu.spl.mics.application.objects;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * Represents a landmark in the environment map.
  * Landmarks are identified and updated by the FusionSlam service.
+ * <p>
+ * A new observation refines the landmark by averaging each observed point with the point
+ * already in its slot: {@code (old + new) / 2}. In bounded mode every slot instead keeps the
+ * running sum of the coordinates observed in it and their count, in primitive arrays, and its
+ * point is their mean, built only when the points are asked for. Refining then allocates
+ * nothing once the slots exist, and the memory of a landmark depends on its number of slots,
+ * not on how often it was seen. The two modes agree on the slots observed at most twice; the
+ * mean of a slot observed more often weighs every observation equally.
+ * </p>
+ * <p>
+ * Refined on a {@link VoxelGrid}, the observation is downsampled in the charging station's
+ * coordinate system and every cell is averaged with the slot of the same cell instead, so a
+ * slot only ever averages points of the same place.
+ * </p>
  */
 public class LandMark {
     private String id; // the internal of the object
     private String Description; // the description of the landmark
     private ArrayList<CloudPoint> points; // list of coordinates of the object according to the charging station's
-                                          // coordinate system
+                                          // coordinate system, empty in bounded mode
+    private transient boolean bounded; // whether the slots keep running sums and counts
+    private transient double[] sumXs; // the sum of the x coordinates observed in every slot (bounded mode)
+    private transient double[] sumYs; // the sum of the y coordinates observed in every slot (bounded mode)
+    private transient int[] counts; // the number of points observed in every slot (bounded mode)
+    private transient int slots; // the number of slots in use (bounded mode)
+    private transient HashMap<Long, Integer> slotsByCell; // the slot of every grid cell, null until refined on a grid
 
     public LandMark(String id, String description) {
+        this(id, description, false);
+    }
+
+    public LandMark(String id, String description, boolean bounded) {
         this.id = id;
         Description = description;
         points = new ArrayList<CloudPoint>();
+        this.bounded = bounded;
+        if (bounded) {
+            sumXs = new double[0];
+            sumYs = new double[0];
+            counts = new int[0];
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDescription() {
+        return Description;
+    }
+
+    /**
+     * @return The points of the landmark. In bounded mode a new list of the means of the slots,
+     *         which does not change the landmark if changed.
+     */
+    public ArrayList<CloudPoint> getPoints() {
+        if (!bounded) {
+            return points;
+        }
+        ArrayList<CloudPoint> means = new ArrayList<CloudPoint>(slots);
+        for (int i = 0; i < slots; i++) {
+            means.add(new CloudPoint(sumXs[i] / counts[i], sumYs[i] / counts[i]));
+        }
+        return means;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    // A copy of the landmark and its points, unaffected by later refinements
+    LandMark copy() {
+        LandMark copy = new LandMark(id, Description);
+        for (CloudPoint p : getPoints()) {
+            copy.points.add(new CloudPoint(p.getX(), p.getY()));
+        }
+        return copy;
+    }
+
+    /**
+     * Refines the landmark with a new observation of it.
+     * The i-th observed point is averaged with the point in the i-th slot, an observation
+     * with more points than seen so far adds slots.
+     *
+     * @param observed The observed points, in the charging station's coordinate system.
+     */
+    public void refine(List<CloudPoint> observed) {
+        if (bounded) {
+            grow(observed.size());
+        }
+        for (int i = 0; i < observed.size(); i++) {
+            CloudPoint p = observed.get(i);
+            if (bounded) {
+                addToSlot(i, p.getX(), p.getY());
+            } else if (i >= points.size()) {
+                points.add(new CloudPoint(p.getX(), p.getY()));
+            } else {
+                CloudPoint old = points.get(i);
+                points.set(i, new CloudPoint((old.getX() + p.getX()) / 2, (old.getY() + p.getY()) / 2));
+            }
+        }
+    }
+
+    /**
+     * Refines the landmark with a new observation of it, downsampled on a grid.
+     * The centroid of every non-empty cell of the observation is averaged with the slot of the
+     * same cell, cells seen for the first time add slots. The grid must not change between
+     * observations of the landmark.
+     *
+     * @param observed The observed points, in the charging station's coordinate system.
+     * @param grid     The grid to downsample the points on.
+     */
+    public void refine(List<CloudPoint> observed, VoxelGrid grid) {
+        if (slotsByCell == null) {
+            // the slots restored from a checkpoint each hold an average of points of one cell
+            slotsByCell = new HashMap<Long, Integer>();
+            List<CloudPoint> restored = getPoints();
+            for (int i = 0; i < restored.size(); i++) {
+                slotsByCell.put(grid.cellOf(restored.get(i)), i);
+            }
+        }
+        ArrayList<Long> cells = new ArrayList<Long>();
+        ArrayList<CloudPoint> centroids = grid.downsample(observed, cells);
+        int size = bounded ? slots : points.size();
+        if (bounded) {
+            grow(size + centroids.size());
+        }
+        for (int c = 0; c < centroids.size(); c++) {
+            CloudPoint p = centroids.get(c);
+            Integer slot = slotsByCell.get(cells.get(c));
+            if (slot == null) {
+                slot = size++;
+                slotsByCell.put(cells.get(c), slot);
+            }
+            if (bounded) {
+                addToSlot(slot, p.getX(), p.getY());
+            } else if (slot >= points.size()) {
+                points.add(new CloudPoint(p.getX(), p.getY()));
+            } else {
+                CloudPoint old = points.get(slot);
+                points.set(slot, new CloudPoint((old.getX() + p.getX()) / 2, (old.getY() + p.getY()) / 2));
+            }
+        }
+    }
+
+    // Makes room for at least the given number of slots in the arrays of the bounded mode
+    private void grow(int size) {
+        if (size > counts.length) {
+            int capacity = Math.max(size, counts.length * 2);
+            sumXs = Arrays.copyOf(sumXs, capacity);
+            sumYs = Arrays.copyOf(sumYs, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+    }
+
+    private void addToSlot(int i, double x, double y) {
+        sumXs[i] += x;
+        sumYs[i] += y;
+        counts[i]++;
+        slots = Math.max(slots, i + 1);
+    }
+
+    // Writes the points for a checkpoint, or in bounded mode the sums and counts of the slots
+    void writeCheckpoint(DataOutputStream out) throws IOException {
+        if (!bounded) {
+            CheckpointLog.writePoints(out, points);
+            return;
+        }
+        out.writeInt(slots);
+        for (int i = 0; i < slots; i++) {
+            out.writeDouble(sumXs[i]);
+            out.writeDouble(sumYs[i]);
+            out.writeInt(counts[i]);
+        }
+    }
+
+    // Applies the state written by writeCheckpoint
+    void readCheckpoint(DataInputStream in) throws IOException {
+        if (!bounded) {
+            ArrayList<CloudPoint> restored = CheckpointLog.readPoints(in);
+            for (int i = 0; i < restored.size(); i++) {
+                if (i < points.size()) {
+                    points.get(i).setPoint(restored.get(i).getX(), restored.get(i).getY());
+                } else {
+                    points.add(restored.get(i));
+                }
+            }
+            return;
+        }
+        int size = in.readInt();
+        grow(size);
+        for (int i = 0; i < size; i++) {
+            sumXs[i] = in.readDouble();
+            sumYs[i] = in.readDouble();
+            counts[i] = in.readInt();
+        }
+        slots = Math.max(slots, size);
     }
 }
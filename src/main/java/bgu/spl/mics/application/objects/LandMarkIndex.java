@@ -0,0 +1,268 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A uniform grid spatial index over the landmarks of the global map.
+ * Each landmark is stored in every cell its point bounds overlap, so nearest and
+ * radius queries only visit the cells around the queried position.
+ * <p>
+ * The index keeps an immutable snapshot of every landmark's points. Updates replace
+ * the snapshot, so queries can run concurrently with the FusionSlam updates without
+ * locking and never see a half-refined landmark. A query running while a landmark moves to
+ * other cells may miss it, as if it ran before or after the update.
+ * </p>
+ */
+public class LandMarkIndex {
+    private final double cellSize; // the side length of a grid cell, in metres
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<String, Entry>> cells; // landmarks per grid cell
+    private final ConcurrentHashMap<String, Entry> entries; // the current snapshot of every indexed landmark
+    // the bounds of every cell ever used, so nearest queries know when to stop expanding
+    private volatile int minCellX = Integer.MAX_VALUE;
+    private volatile int minCellY = Integer.MAX_VALUE;
+    private volatile int maxCellX = Integer.MIN_VALUE;
+    private volatile int maxCellY = Integer.MIN_VALUE;
+
+    public LandMarkIndex(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("cell size must be positive, received: " + cellSize);
+        }
+        this.cellSize = cellSize;
+        this.cells = new ConcurrentHashMap<Long, ConcurrentHashMap<String, Entry>>();
+        this.entries = new ConcurrentHashMap<String, Entry>();
+    }
+
+    // An immutable snapshot of a landmark and the cells it was stored in
+    private static class Entry {
+        private final String id;
+        private final String description;
+        private final double[] xs;
+        private final double[] ys;
+        private final int minX, minY, maxX, maxY; // cell bounds
+
+        private Entry(LandMark landMark, LandMarkIndex index) {
+            List<CloudPoint> points = landMark.getPoints();
+            id = landMark.getId();
+            description = landMark.getDescription();
+            xs = new double[points.size()];
+            ys = new double[points.size()];
+            double lowX = Double.POSITIVE_INFINITY, lowY = Double.POSITIVE_INFINITY;
+            double highX = Double.NEGATIVE_INFINITY, highY = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++) {
+                xs[i] = points.get(i).getX();
+                ys[i] = points.get(i).getY();
+                lowX = Math.min(lowX, xs[i]);
+                lowY = Math.min(lowY, ys[i]);
+                highX = Math.max(highX, xs[i]);
+                highY = Math.max(highY, ys[i]);
+            }
+            minX = index.cell(lowX);
+            minY = index.cell(lowY);
+            maxX = index.cell(highX);
+            maxY = index.cell(highY);
+        }
+
+        private double distance(double x, double y) {
+            double best = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < xs.length; i++) {
+                double dx = xs[i] - x;
+                double dy = ys[i] - y;
+                best = Math.min(best, dx * dx + dy * dy);
+            }
+            return Math.sqrt(best);
+        }
+
+        private boolean covers(int cx, int cy) {
+            return cx >= minX && cx <= maxX && cy >= minY && cy <= maxY;
+        }
+    }
+
+    /**
+     * A landmark found by a query, with its distance from the queried position.
+     */
+    public static class Neighbor {
+        private final Entry entry;
+        private final double distance;
+
+        private Neighbor(Entry entry, double distance) {
+            this.entry = entry;
+            this.distance = distance;
+        }
+
+        public String getId() {
+            return entry.id;
+        }
+
+        public String getDescription() {
+            return entry.description;
+        }
+
+        /**
+         * @return The distance from the queried position to the closest point of the landmark.
+         */
+        public double getDistance() {
+            return distance;
+        }
+
+        public List<CloudPoint> getPoints() {
+            ArrayList<CloudPoint> points = new ArrayList<CloudPoint>(entry.xs.length);
+            for (int i = 0; i < entry.xs.length; i++) {
+                points.add(new CloudPoint(entry.xs[i], entry.ys[i]));
+            }
+            return points;
+        }
+    }
+
+    private static final Comparator<Neighbor> BY_DISTANCE = new Comparator<Neighbor>() {
+        @Override
+        public int compare(Neighbor a, Neighbor b) {
+            return Double.compare(a.distance, b.distance);
+        }
+    };
+
+    /**
+     * Indexes a landmark, or re-indexes it after it was refined.
+     * Must be called by a single updating thread, e.g. the FusionSlam service.
+     *
+     * @param landMark The landmark to index.
+     */
+    public void update(LandMark landMark) {
+        if (landMark.getPoints().isEmpty()) {
+            return;
+        }
+        Entry entry = new Entry(landMark, this);
+        Entry old = entries.put(entry.id, entry);
+        for (int cx = entry.minX; cx <= entry.maxX; cx++) {
+            for (int cy = entry.minY; cy <= entry.maxY; cy++) {
+                ConcurrentHashMap<String, Entry> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    cell = new ConcurrentHashMap<String, Entry>();
+                    cells.put(key(cx, cy), cell);
+                }
+                cell.put(entry.id, entry);
+            }
+        }
+        if (old != null) {
+            for (int cx = old.minX; cx <= old.maxX; cx++) {
+                for (int cy = old.minY; cy <= old.maxY; cy++) {
+                    if (!entry.covers(cx, cy)) {
+                        // only this thread adds to the cells, so an emptied cell stays empty
+                        ConcurrentHashMap<String, Entry> cell = cells.get(key(cx, cy));
+                        cell.remove(old.id, old);
+                        if (cell.isEmpty()) {
+                            cells.remove(key(cx, cy), cell);
+                        }
+                    }
+                }
+            }
+        }
+        minCellX = Math.min(minCellX, entry.minX);
+        minCellY = Math.min(minCellY, entry.minY);
+        maxCellX = Math.max(maxCellX, entry.maxX);
+        maxCellY = Math.max(maxCellY, entry.maxY);
+    }
+
+    /**
+     * @return The number of indexed landmarks.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    // The number of grid cells holding a landmark, empty cells are removed
+    int getCellCount() {
+        return cells.size();
+    }
+
+    /**
+     * Finds every landmark that has a point within {@code radius} of the given position.
+     *
+     * @return The landmarks found, closest first.
+     */
+    public List<Neighbor> withinRadius(double x, double y, double radius) {
+        HashMap<String, Neighbor> found = new HashMap<String, Neighbor>();
+        for (int cx = cell(x - radius); cx <= cell(x + radius); cx++) {
+            for (int cy = cell(y - radius); cy <= cell(y + radius); cy++) {
+                visit(cx, cy, x, y, found);
+            }
+        }
+        ArrayList<Neighbor> result = new ArrayList<Neighbor>();
+        for (Neighbor n : found.values()) {
+            if (n.distance <= radius) {
+                result.add(n);
+            }
+        }
+        Collections.sort(result, BY_DISTANCE);
+        return result;
+    }
+
+    /**
+     * Finds the {@code k} landmarks closest to the given position.
+     * The search expands ring by ring around the position's cell and stops as soon as
+     * no unvisited cell can hold a closer landmark.
+     *
+     * @return Up to {@code k} landmarks, closest first.
+     */
+    public List<Neighbor> nearest(double x, double y, int k) {
+        HashMap<String, Neighbor> found = new HashMap<String, Neighbor>();
+        ArrayList<Neighbor> result = new ArrayList<Neighbor>();
+        if (k <= 0 || entries.isEmpty()) {
+            return result;
+        }
+        int cx = cell(x);
+        int cy = cell(y);
+        int maxRing = Math.max(Math.max(Math.abs(cx - minCellX), Math.abs(maxCellX - cx)),
+                Math.max(Math.abs(cy - minCellY), Math.abs(maxCellY - cy)));
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int dx = -ring; dx <= ring; dx++) {
+                visit(cx + dx, cy - ring, x, y, found);
+                if (ring > 0) {
+                    visit(cx + dx, cy + ring, x, y, found);
+                }
+            }
+            for (int dy = -ring + 1; dy <= ring - 1; dy++) {
+                visit(cx - ring, cy + dy, x, y, found);
+                visit(cx + ring, cy + dy, x, y, found);
+            }
+            // every cell within ring * cellSize of the position was visited
+            if (found.size() >= k && kthDistance(found, k) <= ring * cellSize) {
+                break;
+            }
+        }
+        result.addAll(found.values());
+        Collections.sort(result, BY_DISTANCE);
+        return result.size() > k ? new ArrayList<Neighbor>(result.subList(0, k)) : result;
+    }
+
+    private void visit(int cx, int cy, double x, double y, Map<String, Neighbor> found) {
+        ConcurrentHashMap<String, Entry> cell = cells.get(key(cx, cy));
+        if (cell == null) {
+            return;
+        }
+        for (Entry entry : cell.values()) {
+            if (!found.containsKey(entry.id)) {
+                found.put(entry.id, new Neighbor(entry, entry.distance(x, y)));
+            }
+        }
+    }
+
+    private static double kthDistance(Map<String, Neighbor> found, int k) {
+        ArrayList<Neighbor> sorted = new ArrayList<Neighbor>(found.values());
+        Collections.sort(sorted, BY_DISTANCE);
+        return sorted.get(k - 1).distance;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+}
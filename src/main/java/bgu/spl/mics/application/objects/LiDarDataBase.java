@@ -1,28 +1,153 @@
 package bgu.spl.mics.application.objects;
 
+import com.google.gson.stream.JsonReader;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
 /**
  * LiDarDataBase is a singleton class responsible for managing LiDAR data.
+ * There is a single instance per simulation, see {@link SimulationContext}.
  * It provides access to cloud point data and other relevant information for
  * tracked objects.
  */
 public class LiDarDataBase {
     private static LiDarDataBase instance = null;
     private String filePath;
+    private volatile Loaded loaded; // the loaded data file, null until first used
+
+    // The cloud points of the data file, keyed by time and the index of the object ID.
+    // Built once and never changed, so any number of threads may read it without locking.
+    private static final class Loaded {
+        private final HashMap<String, Integer> ids = new HashMap<String, Integer>(); // the index of every object ID
+        private final HashMap<Long, StampedCloudPoints> cloudPoints = new HashMap<Long, StampedCloudPoints>();
+
+        int indexOf(String id) {
+            Integer index = ids.get(id);
+            if (index == null) {
+                index = ids.size();
+                ids.put(id, index);
+            }
+            return index;
+        }
+
+        StampedCloudPoints get(int time, String id) {
+            Integer index = ids.get(id);
+            return index == null ? null : cloudPoints.get(key(time, index));
+        }
+    }
 
     /**
-     * Returns the singleton instance of LiDarDataBase.
+     * Returns the singleton instance of LiDarDataBase of the simulation context the calling
+     * thread runs in, or the global instance outside of a context.
      *
      * @param filePath The path to the LiDAR data file.
      * @return The singleton instance of LiDarDataBase.
+     * @throws IllegalArgumentException if the instance was already created for a different file.
      */
     public static LiDarDataBase getInstance(String filePath) {
-        if (instance == null) {
-            instance = new LiDarDataBase(filePath);
+        SimulationContext context = SimulationContext.current();
+        if (context != null) {
+            return context.getLiDarDataBase(filePath);
+        }
+        synchronized (LiDarDataBase.class) {
+            if (instance == null) {
+                instance = new LiDarDataBase(filePath);
+            }
+            instance.checkPath(filePath);
+            return instance;
         }
-        return instance;
     }
 
-    private LiDarDataBase(String filePath) {
+    // package-private so that every SimulationContext can hold its own database
+    LiDarDataBase(String filePath) {
         this.filePath = filePath;
     }
+
+    void checkPath(String filePath) {
+        if (!this.filePath.equals(filePath)) {
+            throw new IllegalArgumentException("the LiDAR database was loaded from " + this.filePath
+                    + ", cannot use it for " + filePath);
+        }
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * Returns the cloud points of an object at a given time, loading the LiDAR data file on
+     * first use. Only the x and y coordinates of the points are kept.
+     * Only the first use locks, the LiDAR workers then look up their points concurrently.
+     *
+     * @return The cloud points, or null if the data file holds none for this object and time.
+     * @throws IllegalStateException if the LiDAR data file could not be read.
+     */
+    public StampedCloudPoints getCloudPoints(int time, String id) {
+        Loaded data = loaded;
+        if (data == null) {
+            data = load();
+        }
+        return data.get(time, id);
+    }
+
+    private synchronized Loaded load() {
+        if (loaded == null) {
+            try {
+                loaded = load(filePath);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not read the LiDAR data file " + filePath, e);
+            }
+        }
+        return loaded;
+    }
+
+    // Streams the data file: [{"time": t, "id": id, "cloudPoints": [[x, y, z], ...]}, ...]
+    private static Loaded load(String filePath) throws IOException {
+        Loaded loaded = new Loaded();
+        try (JsonReader in = new JsonReader(new FileReader(filePath))) {
+            in.beginArray();
+            while (in.hasNext()) {
+                String id = null;
+                int time = 0;
+                ArrayList<CloudPoint> points = new ArrayList<CloudPoint>();
+                in.beginObject();
+                while (in.hasNext()) {
+                    String name = in.nextName();
+                    if (name.equals("id")) {
+                        id = in.nextString();
+                    } else if (name.equals("time")) {
+                        time = in.nextInt();
+                    } else if (name.equals("cloudPoints")) {
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            in.beginArray();
+                            double x = in.nextDouble();
+                            double y = in.nextDouble();
+                            while (in.hasNext()) {
+                                in.skipValue();
+                            }
+                            in.endArray();
+                            points.add(new CloudPoint(x, y));
+                        }
+                        in.endArray();
+                    } else {
+                        in.skipValue();
+                    }
+                }
+                in.endObject();
+                StampedCloudPoints stamped = new StampedCloudPoints(id, time);
+                stamped.getPoints().addAll(points);
+                loaded.cloudPoints.put(key(time, loaded.indexOf(id)), stamped);
+            }
+            in.endArray();
+        }
+        return loaded;
+    }
+
+    private static long key(int time, int index) {
+        return ((long) time << 32) | (index & 0xFFFFFFFFL);
+    }
 }
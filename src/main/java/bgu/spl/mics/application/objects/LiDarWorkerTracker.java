@@ -1,6 +1,7 @@
 package bgu.spl.mics.application.objects;
 
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * LiDarWorkerTracker is responsible for managing a LiDAR worker.
@@ -12,7 +13,7 @@ public class LiDarWorkerTracker {
     private int id; // the ID of the LiDAR worker
     private int frequency; // the frequency of the LiDAR worker
     private STATUS status;
-    private ArrayList<TrackedObject> lastTrackedObjects; // list of the last tracked objects
+    private List<TrackedObject> lastTrackedObjects; // list of the last tracked objects
 
     public LiDarWorkerTracker(int id, int frequency) {
         this.id = id;
@@ -21,4 +22,58 @@ public class LiDarWorkerTracker {
         this.lastTrackedObjects = new ArrayList<TrackedObject>();
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public int getFrequency() {
+        return frequency;
+    }
+
+    public STATUS getStatus() {
+        return status;
+    }
+
+    public void setStatus(STATUS status) {
+        this.status = status;
+    }
+
+    /**
+     * Tracks the objects of a camera frame: looks up the cloud points of every detected
+     * object at the frame's time in the LiDAR database.
+     * Objects the database holds no cloud points for are not tracked.
+     *
+     * @return The tracked objects, in the order they were detected.
+     */
+    public ArrayList<TrackedObject> track(StampedDetectedObjects frame, LiDarDataBase database) {
+        ArrayList<TrackedObject> tracked = new ArrayList<TrackedObject>(frame.getDetectedObjects().size());
+        for (DetectedObject detected : frame.getDetectedObjects()) {
+            StampedCloudPoints stamped = database.getCloudPoints(frame.getTime(), detected.getId());
+            if (stamped == null) {
+                continue;
+            }
+            TrackedObject object = new TrackedObject(detected.getId(), frame.getTime(), detected.getDescription());
+            for (CloudPoint p : stamped.getPoints()) {
+                object.getPoints().add(new CloudPoint(p.getX(), p.getY()));
+            }
+            tracked.add(object);
+        }
+        return tracked;
+    }
+
+    /**
+     * Records the tracked objects sent by the worker, replacing the previous ones.
+     * The list is stored as is and must not be modified afterwards.
+     */
+    public void recordTrackedObjects(List<TrackedObject> trackedObjects) {
+        lastTrackedObjects = trackedObjects;
+    }
+
+    /**
+     * @return The last tracked objects sent by the worker, an empty list if it sent none.
+     */
+    public List<TrackedObject> getLastTrackedObjects() {
+        return lastTrackedObjects;
+    }
+
 }
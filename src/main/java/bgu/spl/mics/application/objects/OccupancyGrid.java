@@ -0,0 +1,124 @@
+package bgu.spl.mics.application.objects;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sparse occupancy grid of the environment, built from the cloud points of every
+ * tracked object in the charging station's coordinate system.
+ * <p>
+ * The grid is split into fixed-size square tiles that are allocated only when a point
+ * first falls in them, so memory is proportional to the explored area rather than to the
+ * size of the site. Each cell counts the points that fell in it.
+ * </p>
+ */
+public class OccupancyGrid {
+    private static final int MAGIC = 0x4F475244; // "OGRD"
+    private static final int VERSION = 1;
+    public static final int TILE_SIZE = 64; // the side length of a tile, in cells
+
+    private final double resolution; // the side length of a cell, in metres
+    private final HashMap<Long, short[]> tiles; // hit counts per cell, per allocated tile
+    private long totalHits; // the number of points added to the grid
+
+    public OccupancyGrid(double resolution) {
+        if (resolution <= 0) {
+            throw new IllegalArgumentException("resolution must be positive, received: " + resolution);
+        }
+        this.resolution = resolution;
+        this.tiles = new HashMap<Long, short[]>();
+    }
+
+    public double getResolution() {
+        return resolution;
+    }
+
+    public synchronized int getTileCount() {
+        return tiles.size();
+    }
+
+    public synchronized long getTotalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Marks the cells of the given points as occupied, allocating their tiles if needed.
+     *
+     * @param points Points in the charging station's coordinate system.
+     */
+    public synchronized void addPoints(List<CloudPoint> points) {
+        for (CloudPoint p : points) {
+            int cx = (int) Math.floor(p.getX() / resolution);
+            int cy = (int) Math.floor(p.getY() / resolution);
+            int tx = Math.floorDiv(cx, TILE_SIZE);
+            int ty = Math.floorDiv(cy, TILE_SIZE);
+            long key = ((long) tx << 32) | (ty & 0xffffffffL);
+            short[] tile = tiles.get(key);
+            if (tile == null) {
+                tile = new short[TILE_SIZE * TILE_SIZE];
+                tiles.put(key, tile);
+            }
+            int cell = Math.floorMod(cy, TILE_SIZE) * TILE_SIZE + Math.floorMod(cx, TILE_SIZE);
+            if (tile[cell] < Short.MAX_VALUE) {
+                tile[cell]++;
+            }
+            totalHits++;
+        }
+    }
+
+    /**
+     * @return The number of points that fell in the cell containing the given position.
+     */
+    public synchronized int getHits(double x, double y) {
+        int cx = (int) Math.floor(x / resolution);
+        int cy = (int) Math.floor(y / resolution);
+        short[] tile = tiles.get(((long) Math.floorDiv(cx, TILE_SIZE) << 32) | (Math.floorDiv(cy, TILE_SIZE) & 0xffffffffL));
+        if (tile == null) {
+            return 0;
+        }
+        return tile[Math.floorMod(cy, TILE_SIZE) * TILE_SIZE + Math.floorMod(cx, TILE_SIZE)];
+    }
+
+    /**
+     * Writes the grid to a binary file.
+     * The file holds a header (magic, version, resolution, tile size, tile count) followed by
+     * every allocated tile: its tile coordinates, the number of occupied cells, and for each
+     * occupied cell its index inside the tile (row-major) and its hit count.
+     *
+     * @param filePath The path of the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void export(String filePath) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(resolution);
+            out.writeInt(TILE_SIZE);
+            out.writeInt(tiles.size());
+            for (Map.Entry<Long, short[]> entry : tiles.entrySet()) {
+                long key = entry.getKey();
+                short[] tile = entry.getValue();
+                int occupied = 0;
+                for (short hits : tile) {
+                    if (hits != 0) {
+                        occupied++;
+                    }
+                }
+                out.writeInt((int) (key >> 32));
+                out.writeInt((int) key);
+                out.writeShort(occupied);
+                for (int cell = 0; cell < tile.length; cell++) {
+                    if (tile[cell] != 0) {
+                        out.writeShort(cell);
+                        out.writeShort(tile[cell]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -17,4 +17,20 @@ public class Pose {
         this.yaw = yaw;
         this.time = time;
     }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getYaw() {
+        return yaw;
+    }
+
+    public int getTime() {
+        return time;
+    }
 }
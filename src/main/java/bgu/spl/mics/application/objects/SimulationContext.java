@@ -0,0 +1,201 @@
+package bgu.spl.mics.application.objects;
+
+import bgu.spl.mics.BusScope;
+import bgu.spl.mics.MessageJournal;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the state of a single simulation run: its FusionSlam map, its LiDAR database,
+ * its statistics and (through {@link BusScope}) its message-bus.
+ * <p>
+ * While {@link #call(Callable)} runs, {@link FusionSlam#getInstance()},
+ * {@link LiDarDataBase#getInstance(String)} and {@link bgu.spl.mics.MessageBusImpl#getInstance()}
+ * return the instances of this run on the calling thread and on every thread it starts, so
+ * many simulations can run in the same JVM without sharing state.
+ * </p>
+ * <p>
+ * The context also counts the sensors of the run that still have data to send: the run ends
+ * once every sensor that started has finished, see {@link #sensorStarted(boolean)}.
+ * </p>
+ */
+public class SimulationContext {
+    private static final InheritableThreadLocal<SimulationContext> current = new InheritableThreadLocal<SimulationContext>();
+
+    private final String name; // the name of the run, e.g. its configuration file
+    private final FusionSlam fusionSlam;
+    private final StatisticalFolder statistics;
+    private final MessageJournal journal; // records the messages of this run, null if it is not journaled
+    private LiDarDataBase liDarDataBase; // created on first use, once the data path is known
+    private CheckpointLog checkpointLog; // the checkpoints of this run, null if it is not checkpointed
+    private final Semaphore initializedServices; // a permit for every service that finished its initialization
+    private final AtomicInteger startedSensors;
+    private final AtomicInteger runningSensors; // the sensors started that did not finish yet
+    private final AtomicInteger runningCameras; // the cameras started that did not finish yet
+    private volatile int camerasFinishedTick; // the tick the last running camera finished at, MAX_VALUE while one runs
+
+    public SimulationContext(String name) {
+        this(name, null);
+    }
+
+    /**
+     * @param journal The journal to record the messages of this run to, null to record nothing.
+     */
+    public SimulationContext(String name, MessageJournal journal) {
+        this.name = name;
+        this.journal = journal;
+        this.fusionSlam = new FusionSlam();
+        this.statistics = new StatisticalFolder();
+        this.initializedServices = new Semaphore(0);
+        this.startedSensors = new AtomicInteger();
+        this.runningSensors = new AtomicInteger();
+        this.runningCameras = new AtomicInteger();
+        this.camerasFinishedTick = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return The context the calling thread runs in, or null outside of a context.
+     */
+    public static SimulationContext current() {
+        return current.get();
+    }
+
+    /**
+     * Runs {@code task} in this context, with a message-bus of its own.
+     *
+     * @return The result of the task.
+     * @throws Exception if the task threw.
+     */
+    public <R> R call(Callable<R> task) throws Exception {
+        SimulationContext previous = current.get();
+        current.set(this);
+        try {
+            return BusScope.call(task, journal);
+        } finally {
+            if (previous == null) {
+                current.remove();
+            } else {
+                current.set(previous);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FusionSlam getFusionSlam() {
+        return fusionSlam;
+    }
+
+    public StatisticalFolder getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return The LiDAR database of this run, or null if it was not created yet.
+     */
+    public synchronized LiDarDataBase getLiDarDataBase() {
+        return liDarDataBase;
+    }
+
+    synchronized LiDarDataBase getLiDarDataBase(String filePath) {
+        if (liDarDataBase == null) {
+            liDarDataBase = new LiDarDataBase(filePath);
+        }
+        liDarDataBase.checkPath(filePath);
+        return liDarDataBase;
+    }
+
+    /**
+     * Reports that a service of the calling thread's context finished its initialization and
+     * receives the messages it subscribed to. Does nothing outside of a context.
+     */
+    public static void serviceInitialized() {
+        SimulationContext context = current.get();
+        if (context != null) {
+            context.initializedServices.release();
+        }
+    }
+
+    /**
+     * Waits until {@code count} more services of this run finished their initialization,
+     * e.g. before the first tick is sent.
+     *
+     * @return true if they did, false if the timeout passed first.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitInitializedServices(int count, long timeout, TimeUnit unit) throws InterruptedException {
+        return initializedServices.tryAcquire(count, timeout, unit);
+    }
+
+    /**
+     * Reports that a sensor service of the calling thread's context started, before the tick it
+     * starts at is sent. It must report once it has finished, with {@link #sensorFinished(boolean, int)}.
+     * Does nothing outside of a context.
+     *
+     * @param camera true for a camera, whose detections the LiDAR workers wait for.
+     */
+    public static void sensorStarted(boolean camera) {
+        SimulationContext context = current.get();
+        if (context != null) {
+            context.startedSensors.incrementAndGet();
+            context.runningSensors.incrementAndGet();
+            if (camera) {
+                context.runningCameras.incrementAndGet();
+                context.camerasFinishedTick = Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Reports that a started sensor of the calling thread's context has nothing left to send.
+     * Does nothing outside of a context.
+     *
+     * @param camera true for a camera.
+     * @param tick   The tick the sensor finished at, 0 for one restored finished from a checkpoint.
+     */
+    public static void sensorFinished(boolean camera, int tick) {
+        SimulationContext context = current.get();
+        if (context != null) {
+            if (camera && context.runningCameras.decrementAndGet() == 0) {
+                context.camerasFinishedTick = tick;
+            }
+            context.runningSensors.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return true if the cameras of the calling thread's context all finished before
+     *         {@code tick}, so no detection is sent at {@code tick} or later. False outside of a
+     *         context, or if no camera started.
+     */
+    public static boolean camerasFinishedBefore(int tick) {
+        SimulationContext context = current.get();
+        return context != null && context.camerasFinishedTick < tick;
+    }
+
+    /**
+     * @return true if sensors started in this run and every one of them finished.
+     */
+    public boolean sensorsFinished() {
+        return startedSensors.get() > 0 && runningSensors.get() == 0;
+    }
+
+    /**
+     * @return The checkpoint log of this run, or null if it is not checkpointed.
+     */
+    public synchronized CheckpointLog getCheckpointLog() {
+        return checkpointLog;
+    }
+
+    /**
+     * Sets the checkpoint log of this run, before its services are created.
+     */
+    public synchronized void setCheckpointLog(CheckpointLog checkpointLog) {
+        this.checkpointLog = checkpointLog;
+    }
+}
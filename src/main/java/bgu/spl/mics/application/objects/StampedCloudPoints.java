@@ -19,4 +19,16 @@ public class StampedCloudPoints {
         this.points = new ArrayList<CloudPoint>();
     }
 
+    public String getId() {
+        return id;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public ArrayList<CloudPoint> getPoints() {
+        return points;
+    }
+
 }
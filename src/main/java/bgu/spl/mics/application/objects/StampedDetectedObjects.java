@@ -14,4 +14,12 @@ public class StampedDetectedObjects {
         this.time = time;
         this.detectedObjects = new ArrayList<DetectedObject>();
     }
+
+    public int getTime() {
+        return time;
+    }
+
+    public ArrayList<DetectedObject> getDetectedObjects() {
+        return detectedObjects;
+    }
 }
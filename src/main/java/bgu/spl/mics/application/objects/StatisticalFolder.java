@@ -1,54 +1,208 @@
 package bgu.spl.mics.application.objects;
 
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Holds statistical information about the system's operation.
  * This class aggregates metrics such as the runtime of the system,
  * the number of objects detected and tracked, and the number of landmarks
  * identified.
+ * <p>
+ * The counters are striped {@link LongAdder}s, so the camera and LiDAR threads can update
+ * them concurrently without contending on a lock. A snapshot of every counter can be taken
+ * once per tick into a fixed-size ring of primitive arrays, to plot the counters per tick
+ * after a run.
+ * </p>
  */
 public class StatisticalFolder {
-    private int systemRuntime; // the total runtime of the system - measured in ticks.
-    private int numDetectedObjects; // the cumulative count of objects detected all cameras. This includes both
-                                    // initial detections and subsequent re-detections.
-    private int numTrackedObjects; // the cumulative count of objects tracked by all LiDAR workers, encompassing
-                                   // both new tracks and ongoing tracking of previously detected objects
-    private int numLandmarks; // the total number of unique landmarks identified and mapped within the
-                              // environment, this count is updated only when new landmarks are added to the
-                              // map
+    /**
+     * The per tick snapshots kept by default: the last 16384 ticks, about 450 KB. A longer run
+     * keeps its last ticks only.
+     */
+    public static final int DEFAULT_HISTORY_CAPACITY = 1 << 14;
+
+    private volatile int systemRuntime; // the total runtime of the system - measured in ticks.
+    private final LongAdder numDetectedObjects; // the cumulative count of objects detected all cameras. This includes both
+                                                // initial detections and subsequent re-detections.
+    private final LongAdder numTrackedObjects; // the cumulative count of objects tracked by all LiDAR workers, encompassing
+                                               // both new tracks and ongoing tracking of previously detected objects
+    private final LongAdder numLandmarks; // the total number of unique landmarks identified and mapped within the
+                                          // environment, this count is updated only when new landmarks are added to the
+                                          // map
+    private transient volatile int liDarPoolSize; // the number of running LiDAR services, in elastic mode
+    private final transient LongAdder liDarScaleUps; // the LiDAR services started by the LiDAR pool
+    private final transient LongAdder liDarScaleDowns; // the LiDAR services retired by the LiDAR pool
+    // per tick snapshots of the counters, historyTicks[i] is the tick of the i-th slot
+    private final transient int[] historyTicks;
+    private final transient long[] historyDetected;
+    private final transient long[] historyTracked;
+    private final transient long[] historyLandmarks;
+    private transient int historyNext; // the slot the next snapshot is written to
+    private transient int historySize; // the number of stored snapshots
 
     public StatisticalFolder() {
+        this(DEFAULT_HISTORY_CAPACITY);
+    }
+
+    /**
+     * @param historyCapacity The number of per tick snapshots kept, older snapshots are overwritten.
+     */
+    public StatisticalFolder(int historyCapacity) {
+        if (historyCapacity <= 0) {
+            throw new IllegalArgumentException("history capacity must be positive, received: " + historyCapacity);
+        }
         systemRuntime = 0;
-        numDetectedObjects = 0;
-        numTrackedObjects = 0;
-        numLandmarks = 0;
+        numDetectedObjects = new LongAdder();
+        numTrackedObjects = new LongAdder();
+        numLandmarks = new LongAdder();
+        liDarScaleUps = new LongAdder();
+        liDarScaleDowns = new LongAdder();
+        historyTicks = new int[historyCapacity];
+        historyDetected = new long[historyCapacity];
+        historyTracked = new long[historyCapacity];
+        historyLandmarks = new long[historyCapacity];
     }
 
     public int getSystemRuntime() {
         return systemRuntime;
     }
 
+    public void setSystemRuntime(int systemRuntime) {
+        this.systemRuntime = systemRuntime;
+    }
+
     public int getNumDetectedObjects() {
-        return numDetectedObjects;
+        return numDetectedObjects.intValue();
     }
 
     public int getNumTrackedObjects() {
-        return numTrackedObjects;
+        return numTrackedObjects.intValue();
     }
 
     public int getNumLandmarks() {
-        return numLandmarks;
+        return numLandmarks.intValue();
     }
 
     public void increaseNumDetectedObjects() {
-        numDetectedObjects++;
+        numDetectedObjects.increment();
+    }
+
+    public void increaseNumDetectedObjects(int amount) {
+        numDetectedObjects.add(amount);
     }
 
     public void increaseNumTrackedObjects() {
-        numTrackedObjects++;
+        numTrackedObjects.increment();
+    }
+
+    public void increaseNumTrackedObjects(int amount) {
+        numTrackedObjects.add(amount);
     }
 
     public void increaseNumLandmarks() {
-        numLandmarks++;
+        numLandmarks.increment();
+    }
+
+    public int getLiDarPoolSize() {
+        return liDarPoolSize;
+    }
+
+    public void setLiDarPoolSize(int liDarPoolSize) {
+        this.liDarPoolSize = liDarPoolSize;
+    }
+
+    public int getLiDarScaleUps() {
+        return liDarScaleUps.intValue();
+    }
+
+    public void increaseLiDarScaleUps() {
+        liDarScaleUps.increment();
+    }
+
+    public int getLiDarScaleDowns() {
+        return liDarScaleDowns.intValue();
+    }
+
+    public void increaseLiDarScaleDowns() {
+        liDarScaleDowns.increment();
+    }
+
+    // Writes the counters for a checkpoint, see CheckpointLog
+    void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(systemRuntime);
+        out.writeLong(numDetectedObjects.sum());
+        out.writeLong(numTrackedObjects.sum());
+        out.writeLong(numLandmarks.sum());
+    }
+
+    // Restores the counters of a checkpoint, before the services start
+    void readCheckpoint(DataInputStream in) throws IOException {
+        systemRuntime = in.readInt();
+        numDetectedObjects.reset();
+        numDetectedObjects.add(in.readLong());
+        numTrackedObjects.reset();
+        numTrackedObjects.add(in.readLong());
+        numLandmarks.reset();
+        numLandmarks.add(in.readLong());
+    }
+
+    /**
+     * Stores a snapshot of every counter for {@code tick}, overwriting the oldest snapshot
+     * once the history is full. Meant to be called once per tick by a single thread.
+     */
+    public synchronized void recordTick(int tick) {
+        historyTicks[historyNext] = tick;
+        historyDetected[historyNext] = numDetectedObjects.sum();
+        historyTracked[historyNext] = numTrackedObjects.sum();
+        historyLandmarks[historyNext] = numLandmarks.sum();
+        historyNext = (historyNext + 1) % historyTicks.length;
+        if (historySize < historyTicks.length) {
+            historySize++;
+        }
+    }
+
+    /**
+     * @return The number of stored per tick snapshots.
+     */
+    public synchronized int getHistorySize() {
+        return historySize;
+    }
+
+    /**
+     * Returns a stored snapshot as {tick, numDetectedObjects, numTrackedObjects, numLandmarks}.
+     *
+     * @param index 0 for the oldest stored snapshot, {@link #getHistorySize()} - 1 for the newest.
+     */
+    public synchronized long[] getHistoryEntry(int index) {
+        if (index < 0 || index >= historySize) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + historySize);
+        }
+        int slot = (historyNext - historySize + index + historyTicks.length) % historyTicks.length;
+        return new long[] { historyTicks[slot], historyDetected[slot], historyTracked[slot], historyLandmarks[slot] };
+    }
+
+    /**
+     * Writes the stored per tick snapshots as CSV, oldest first.
+     *
+     * @param filePath The path of the file to write.
+     * @throws IOException if the file could not be written.
+     */
+    public synchronized void writeHistory(String filePath) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filePath))) {
+            out.write("tick,numDetectedObjects,numTrackedObjects,numLandmarks");
+            out.newLine();
+            for (int i = 0; i < historySize; i++) {
+                int slot = (historyNext - historySize + i + historyTicks.length) % historyTicks.length;
+                out.write(historyTicks[slot] + "," + historyDetected[slot] + "," + historyTracked[slot] + ","
+                        + historyLandmarks[slot]);
+                out.newLine();
+            }
+        }
     }
 
 }
@@ -20,4 +20,20 @@ public class TrackedObject {
         this.description = description;
         this.points = new ArrayList<>();
     }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public ArrayList<CloudPoint> getPoints() {
+        return points;
+    }
 }
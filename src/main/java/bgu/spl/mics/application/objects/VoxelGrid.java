@@ -0,0 +1,111 @@
+package bgu.spl.mics.application.objects;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Downsamples cloud points on a uniform grid of square cells.
+ * Every non-empty cell is replaced by the centroid of its points, and the cells are kept
+ * in the order their first point appears in the input.
+ * <p>
+ * The grid is anchored at the origin of the coordinate system of the points, so a cell covers
+ * the same area in every call. Points of the same place must therefore be given in the same
+ * coordinate system, e.g. the charging station's, for their cells to match.
+ * </p>
+ * <p>
+ * Both a point and the centroid of its cell lie in the same cell, so every input point is
+ * within {@link #getTolerance()} (the cell diagonal) of some output point, and every output
+ * point is within it of some input point.
+ * </p>
+ */
+public class VoxelGrid {
+    private final double cellSize; // the side of a cell, in meters
+
+    public VoxelGrid(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("cell size must be positive, received: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return The maximal distance between an input point and the closest output point.
+     */
+    public double getTolerance() {
+        return cellSize * Math.sqrt(2);
+    }
+
+    /**
+     * @return The centroids of the non-empty cells, one per cell.
+     */
+    public ArrayList<CloudPoint> downsample(List<CloudPoint> points) {
+        return downsample(points, null);
+    }
+
+    /**
+     * @return The cell of a point, equal for every point of the cell.
+     */
+    public long cellOf(CloudPoint p) {
+        return key(p.getX(), p.getY());
+    }
+
+    // Downsamples the points, adding the cell of every centroid to cellsOut if it is not null
+    ArrayList<CloudPoint> downsample(List<CloudPoint> points, List<Long> cellsOut) {
+        HashMap<Long, Integer> cells = new HashMap<Long, Integer>(); // cell key -> index of its centroid
+        double[] sumX = new double[points.size()];
+        double[] sumY = new double[points.size()];
+        int[] counts = new int[points.size()];
+        int size = 0;
+        for (CloudPoint p : points) {
+            long key = key(p.getX(), p.getY());
+            Integer index = cells.get(key);
+            if (index == null) {
+                index = size++;
+                cells.put(key, index);
+                if (cellsOut != null) {
+                    cellsOut.add(key);
+                }
+            }
+            sumX[index] += p.getX();
+            sumY[index] += p.getY();
+            counts[index]++;
+        }
+        ArrayList<CloudPoint> downsampled = new ArrayList<CloudPoint>(size);
+        for (int i = 0; i < size; i++) {
+            downsampled.add(new CloudPoint(sumX[i] / counts[i], sumY[i] / counts[i]));
+        }
+        return downsampled;
+    }
+
+    /**
+     * Returns the Hausdorff distance between two non-empty point sets: the largest distance
+     * from a point of either set to the closest point of the other one.
+     * Meant to check a downsampled object against {@link #getTolerance()}.
+     */
+    public static double distance(List<CloudPoint> a, List<CloudPoint> b) {
+        return Math.max(directedDistance(a, b), directedDistance(b, a));
+    }
+
+    private static double directedDistance(List<CloudPoint> from, List<CloudPoint> to) {
+        double max = 0;
+        for (CloudPoint p : from) {
+            double min = Double.POSITIVE_INFINITY;
+            for (CloudPoint q : to) {
+                min = Math.min(min, Math.hypot(p.getX() - q.getX(), p.getY() - q.getY()));
+            }
+            max = Math.max(max, min);
+        }
+        return max;
+    }
+
+    private long key(double x, double y) {
+        long cx = (long) Math.floor(x / cellSize);
+        long cy = (long) Math.floor(y / cellSize);
+        return (cx << 32) ^ (cy & 0xffffffffL);
+    }
+}
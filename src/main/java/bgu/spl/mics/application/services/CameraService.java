@@ -1,6 +1,22 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.Camera;
+import bgu.spl.mics.application.objects.CheckpointLog;
+import bgu.spl.mics.application.objects.Checkpointable;
+import bgu.spl.mics.application.objects.FrameDelta;
+import bgu.spl.mics.application.objects.STATUS;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * CameraService is responsible for processing data from the camera and
@@ -8,26 +24,108 @@ import bgu.spl.mics.MicroService;
  * 
  * This service interacts with the Camera object to detect objects and updates
  * the system's StatisticalFolder upon sending its observations.
+ * Its cursor into the camera data is saved in the checkpoints of the simulation, if any.
  */
-public class CameraService extends MicroService {
+public class CameraService extends MicroService implements Checkpointable {
+    private final Camera camera;
+    private final StatisticalFolder statistics;
+    private final CheckpointLog checkpoints; // the checkpoint log of the simulation, null if not checkpointed
+    private DetectObjectsEvent lastEvent; // the event of the last sent frame, the base of the next delta
+    private int lastSentTime; // the time of the last frame sent, the cursor into the camera data
 
     /**
      * Constructor for CameraService.
+     * The statistics are taken from the current simulation context.
      *
      * @param camera The Camera object that this service will use to detect objects.
      */
     public CameraService(Camera camera) {
-        super("Change_This_Name");
-        // TODO Implement this
+        this(camera, SimulationContext.current().getStatistics());
+    }
+
+    /**
+     * @param camera     The Camera object that this service will use to detect objects.
+     * @param statistics The statistics to count detected objects in.
+     */
+    public CameraService(Camera camera, StatisticalFolder statistics) {
+        super("Camera" + camera.getId());
+        this.camera = camera;
+        this.statistics = statistics;
+        SimulationContext context = SimulationContext.current();
+        this.checkpoints = context == null ? null : context.getCheckpointLog();
+        this.lastSentTime = Integer.MIN_VALUE;
     }
 
     /**
      * Initializes the CameraService.
      * Registers the service to handle TickBroadcasts and sets up callbacks for sending
      * DetectObjectsEvents.
+     * The frame detected at time t is sent at tick t + frequency, in full or, in delta mode,
+     * as its delta from the previous frame. Detected objects are counted in full either way.
+     * Frames are released once sent, so a paged camera only holds the blocks around the current tick.
+     * A resumed camera never sends a frame again, even if the first ticks after the resume reach back.
+     * A frame holding an object with the ID {@code ERROR} is not sent: at the tick of that frame the
+     * camera fails and a CrashedBroadcast stops the simulation.
+     * The camera goes down at the first tick it has no frame left to send, and the simulation
+     * ends once every sensor did.
      */
     @Override
     protected void initialize() {
-        // TODO Implement this
+        if (checkpoints != null) {
+            checkpoints.register(this);
+        }
+        SimulationContext.sensorStarted(true);
+        if (camera.getStatus() == STATUS.DOWN) {
+            SimulationContext.sensorFinished(true, 0);
+        }
+        subscribeBroadcast(TickBroadcast.class, tick -> {
+            StampedDetectedObjects detected = camera.getFrame(tick.getTick());
+            String error = detected != null ? Camera.errorOf(detected) : null;
+            if (error != null) {
+                camera.reportError(error);
+                sendBroadcast(new CrashedBroadcast(error, getName(), tick.getTick()));
+                terminate();
+                return;
+            }
+            int time = tick.getTick() - camera.getFrequency();
+            StampedDetectedObjects frame = time > lastSentTime ? camera.getFrame(time) : null;
+            if (frame != null) {
+                send(frame);
+            }
+            camera.releaseFramesBefore(time);
+            if (time > camera.getLastFrameTime() && camera.getStatus() == STATUS.UP) {
+                camera.setStatus(STATUS.DOWN);
+                SimulationContext.sensorFinished(true, tick.getTick());
+            }
+        });
+        subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> terminate());
+        SimulationContext.serviceInitialized();
+    }
+
+    @Override
+    public String getCheckpointName() {
+        return getName();
+    }
+
+    @Override
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeUTF(camera.getStatus().name());
+        out.writeInt(lastSentTime);
+    }
+
+    @Override
+    public void restoreCheckpoint(DataInputStream in) throws IOException {
+        camera.setStatus(STATUS.valueOf(in.readUTF()));
+        lastSentTime = in.readInt();
+    }
+
+    private void send(StampedDetectedObjects frame) {
+        statistics.increaseNumDetectedObjects(frame.getDetectedObjects().size());
+        FrameDelta delta = camera.nextDelta(frame);
+        camera.recordFrame(frame);
+        lastEvent = delta == null ? new DetectObjectsEvent(frame) : new DetectObjectsEvent(lastEvent, delta);
+        lastSentTime = frame.getTime();
+        sendEvent(lastEvent);
     }
 }
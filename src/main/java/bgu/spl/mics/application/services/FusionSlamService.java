@@ -1,6 +1,21 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.OutputWriter;
+import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.FusionSlam;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * FusionSlamService integrates data from multiple sensors to build and update
@@ -10,23 +25,110 @@ import bgu.spl.mics.MicroService;
  * transforming and updating the map with new landmarks.
  */
 public class FusionSlamService extends MicroService {
+    private final FusionSlam fusionSlam;
+    private final StatisticalFolder statistics;
+    private final OutputWriter snapshots; // writes the periodic snapshots of the output, null for none
+    private final CountDownLatch initialized; // released once the service has subscribed to its messages
+
     /**
      * Constructor for FusionSlamService.
      *
      * @param fusionSlam The FusionSLAM object responsible for managing the global map.
      */
     public FusionSlamService(FusionSlam fusionSlam) {
-        super("Change_This_Name");
-        // TODO Implement this
+        this(fusionSlam, SimulationContext.current() != null ? SimulationContext.current().getStatistics()
+                : new StatisticalFolder());
+    }
+
+    /**
+     * @param fusionSlam The FusionSLAM object responsible for managing the global map.
+     * @param statistics The statistics to count new landmarks in.
+     */
+    public FusionSlamService(FusionSlam fusionSlam, StatisticalFolder statistics) {
+        this(fusionSlam, statistics, null);
+    }
+
+    /**
+     * @param fusionSlam The FusionSLAM object responsible for managing the global map.
+     * @param statistics The statistics to count new landmarks in.
+     * @param snapshots  The writer of the periodic snapshots of the output, null for none.
+     */
+    public FusionSlamService(FusionSlam fusionSlam, StatisticalFolder statistics, OutputWriter snapshots) {
+        super("FusionSlam");
+        this.fusionSlam = fusionSlam;
+        this.statistics = statistics;
+        this.snapshots = snapshots;
+        this.initialized = new CountDownLatch(1);
     }
 
     /**
      * Initializes the FusionSlamService.
      * Registers the service to handle TrackedObjectsEvents, PoseEvents, and TickBroadcasts,
      * and sets up callbacks for updating the global map.
+     * Tracked objects whose pose has not arrived yet are held by the FusionSlam until it does.
+     * A PoseEvent may carry the poses of several ticks, if the service fell behind.
+     * Objects still waiting for a pose when the simulation terminates are dropped and reported.
+     * A snapshot of the output is written on the ticks it is due, by this thread, which is the
+     * only one updating the map.
      */
     @Override
     protected void initialize() {
-        // TODO Implement this
+        subscribeEvent(TrackedObjectsEvent.class, event -> {
+            for (TrackedObject object : event.getTrackedObjects()) {
+                if (!fusionSlam.holdUntilPose(object)) {
+                    process(object, fusionSlam.getPose(object.getTime()));
+                }
+            }
+            complete(event, true);
+        });
+        subscribeEvent(PoseEvent.class, event -> {
+            for (Pose pose : event.getPoses()) {
+                for (TrackedObject object : fusionSlam.addPose(pose)) {
+                    process(object, pose);
+                }
+            }
+            complete(event, true);
+        });
+        subscribeBroadcast(TickBroadcast.class, tick -> {
+            statistics.recordTick(tick.getTick());
+            if (snapshots != null) {
+                snapshot(tick.getTick());
+            }
+        });
+        subscribeBroadcast(TerminatedBroadcast.class, terminated -> {
+            reportUnfused(fusionSlam.evictPending());
+            terminate();
+        });
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> terminate());
+        initialized.countDown();
+        SimulationContext.serviceInitialized();
+    }
+
+    /**
+     * Waits until the service has subscribed to its messages.
+     */
+    public void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    private void snapshot(int tick) {
+        try {
+            snapshots.onTick(tick, statistics, fusionSlam);
+        } catch (IOException e) {
+            System.err.println("Could not write the snapshot of tick " + tick + ": " + e.getMessage());
+        }
+    }
+
+    private void reportUnfused(List<TrackedObject> objects) {
+        if (!objects.isEmpty()) {
+            System.err.println(getName() + ": " + objects.size() + " tracked objects never got a pose, the first is "
+                    + objects.get(0).getId() + " at tick " + objects.get(0).getTime());
+        }
+    }
+
+    private void process(TrackedObject object, Pose pose) {
+        if (fusionSlam.processTrackedObject(object, pose)) {
+            statistics.increaseNumLandmarks();
+        }
     }
 }
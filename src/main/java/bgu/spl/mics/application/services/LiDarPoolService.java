@@ -0,0 +1,150 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.LiDarRetireBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LiDarPoolService scales the LiDAR workers of the simulation with their load.
+ * <p>
+ * Every tick it sums the backlogs of the LiDAR services, see {@link LiDarService#getBacklog()}.
+ * When the backlog passes {@code threshold} detections per running LiDAR service, it starts an
+ * extra LiDAR service backed by a new {@link LiDarWorkerTracker}, at the current tick; when the
+ * backlogs stay empty for {@code idleTicks} ticks, it retires the newest extra service. The
+ * configured services are never retired. A retired service stops at once: the detections queued
+ * to it are handed to the remaining ones by the message-bus and the ones it was holding are sent
+ * again, so every detection is still tracked exactly once.
+ * </p>
+ * The pool size and the scaling decisions are reported through the {@link StatisticalFolder}.
+ * The service stops once every extra service it started has stopped.
+ */
+public class LiDarPoolService extends MicroService {
+    private final List<LiDarService> baseServices; // the configured LiDAR services
+    private final int frequency; // the frequency of the extra workers
+    private final int threshold; // the backlog per running service that triggers a scale up
+    private final int maxExtraWorkers;
+    private final int idleTicks; // the empty ticks before an extra service is retired
+    private final LiDarDataBase database;
+    private final StatisticalFolder statistics;
+    private final ArrayDeque<LiDarService> extraServices; // the running extra services, newest last
+    private final List<Thread> extraThreads; // the threads of every extra service started
+    private final List<LiDarWorkerTracker> extraWorkers; // the workers of every extra service started
+    private int nextWorkerId;
+    private int emptyTicks; // consecutive ticks with empty LiDAR backlogs
+
+    /**
+     * @param baseServices    The LiDAR services started from the configuration.
+     * @param frequency       The frequency of the extra LiDAR workers, the configured workers' frequency.
+     * @param threshold       The backlog per running LiDAR service that triggers a scale up.
+     * @param maxExtraWorkers The maximal number of extra LiDAR services running at once.
+     * @param idleTicks       The number of ticks the LiDAR backlogs must stay empty before an extra service is retired.
+     */
+    public LiDarPoolService(List<LiDarService> baseServices, int frequency, int threshold, int maxExtraWorkers,
+            int idleTicks, LiDarDataBase database, StatisticalFolder statistics) {
+        super("LiDarPool");
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold must be positive, received: " + threshold);
+        }
+        if (idleTicks <= 0) {
+            throw new IllegalArgumentException("idle ticks must be positive, received: " + idleTicks);
+        }
+        this.baseServices = new ArrayList<LiDarService>(baseServices);
+        this.frequency = frequency;
+        this.threshold = threshold;
+        this.maxExtraWorkers = maxExtraWorkers;
+        this.idleTicks = idleTicks;
+        this.database = database;
+        this.statistics = statistics;
+        this.extraServices = new ArrayDeque<LiDarService>();
+        this.extraThreads = new ArrayList<Thread>();
+        this.extraWorkers = new ArrayList<LiDarWorkerTracker>();
+        int maxId = 0;
+        for (LiDarService service : baseServices) {
+            maxId = Math.max(maxId, service.getWorker().getId());
+        }
+        this.nextWorkerId = maxId + 1;
+    }
+
+    /**
+     * Initializes the LiDarPoolService.
+     * Registers the service to handle TickBroadcasts, on which the pool is resized.
+     */
+    @Override
+    protected void initialize() {
+        statistics.setLiDarPoolSize(baseServices.size());
+        subscribeBroadcast(TickBroadcast.class, tick -> resize(tick.getTick()));
+        subscribeBroadcast(TerminatedBroadcast.class, terminated -> stop());
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> stop());
+        SimulationContext.serviceInitialized();
+    }
+
+    private void resize(int tick) {
+        int backlog = 0;
+        for (LiDarService service : baseServices) {
+            backlog += service.getBacklog();
+        }
+        for (LiDarService service : extraServices) {
+            backlog += service.getBacklog();
+        }
+        int running = baseServices.size() + extraServices.size();
+        if (backlog > threshold * running && extraServices.size() < maxExtraWorkers) {
+            emptyTicks = 0;
+            startExtraService(tick);
+        } else if (backlog == 0 && !extraServices.isEmpty() && ++emptyTicks >= idleTicks) {
+            emptyTicks = 0;
+            sendBroadcast(new LiDarRetireBroadcast(extraServices.removeLast().getName()));
+            statistics.increaseLiDarScaleDowns();
+        } else if (backlog > 0) {
+            emptyTicks = 0;
+        }
+        statistics.setLiDarPoolSize(baseServices.size() + extraServices.size());
+    }
+
+    /**
+     * @return The workers of every extra service the pool started, retired ones included, in the
+     *         order they were started. Read once the pool's thread has ended.
+     */
+    public List<LiDarWorkerTracker> getExtraWorkers() {
+        return extraWorkers;
+    }
+
+    // Starts an extra service at the current tick, and waits until it receives the next ticks
+    private void startExtraService(int tick) {
+        LiDarService service = new LiDarService(new LiDarWorkerTracker(nextWorkerId++, frequency), database, statistics);
+        service.setCurrentTick(tick);
+        Thread thread = new Thread(service, service.getName());
+        thread.start();
+        extraThreads.add(thread);
+        try {
+            service.awaitInitialized();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        extraServices.addLast(service);
+        extraWorkers.add(service.getWorker());
+        statistics.increaseLiDarScaleUps();
+    }
+
+    // Terminates once the extra services, which received the same broadcast, have stopped
+    private void stop() {
+        try {
+            for (Thread thread : extraThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        terminate();
+    }
+}
@@ -1,6 +1,28 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.MessageBusImpl;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.LiDarRetireBroadcast;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.messages.TrackedObjectsEvent;
+import bgu.spl.mics.application.objects.CheckpointLog;
+import bgu.spl.mics.application.objects.Checkpointable;
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.STATUS;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.application.objects.TrackedObject;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * LiDarService is responsible for processing data from the LiDAR sensor and
@@ -9,26 +31,194 @@ import bgu.spl.mics.MicroService;
  * This service interacts with the LiDarWorkerTracker object to retrieve and process
  * cloud point data and updates the system's StatisticalFolder upon sending its
  * observations.
+ * The detections waiting for the worker's frequency are saved in the checkpoints of the
+ * simulation, if any.
  */
-public class LiDarService extends MicroService {
+public class LiDarService extends MicroService implements Checkpointable {
+    private final LiDarWorkerTracker worker;
+    private final LiDarDataBase database;
+    private final StatisticalFolder statistics;
+    private final CheckpointLog checkpoints; // the checkpoint log of the simulation, null if not checkpointed
+    private final MessageBusImpl bus; // the bus this service receives its detections from
+    private final ArrayList<DetectObjectsEvent> waiting; // detections waiting for the worker's frequency to pass
+    private volatile int waitingCount; // the size of waiting, readable from other threads
+    private final CountDownLatch initialized; // released once the service has subscribed to its messages
+    private int currentTick;
 
     /**
      * Constructor for LiDarService.
+     * The LiDAR database and the statistics are taken from the current simulation context.
      *
      * @param LiDarWorkerTracker A LiDAR Tracker worker object that this service will use to process data.
+     * @throws IllegalStateException if the LiDAR database of the current context was not created yet.
      */
     public LiDarService(LiDarWorkerTracker LiDarWorkerTracker) {
-        super("Change_This_Name");
-        // TODO Implement this
+        this(LiDarWorkerTracker, contextDataBase(), SimulationContext.current().getStatistics());
+    }
+
+    /**
+     * @param LiDarWorkerTracker A LiDAR Tracker worker object that this service will use to process data.
+     * @param database           The database to look the cloud points up in.
+     * @param statistics         The statistics to count tracked objects in.
+     */
+    public LiDarService(LiDarWorkerTracker LiDarWorkerTracker, LiDarDataBase database, StatisticalFolder statistics) {
+        super("LiDarWorkerTracker" + LiDarWorkerTracker.getId());
+        this.worker = LiDarWorkerTracker;
+        this.database = database;
+        this.statistics = statistics;
+        this.bus = MessageBusImpl.getInstance();
+        this.waiting = new ArrayList<DetectObjectsEvent>();
+        this.initialized = new CountDownLatch(1);
+        SimulationContext context = SimulationContext.current();
+        this.checkpoints = context == null ? null : context.getCheckpointLog();
     }
 
     /**
      * Initializes the LiDarService.
      * Registers the service to handle DetectObjectsEvents and TickBroadcasts,
      * and sets up the necessary callbacks for processing data.
+     * Detections are tracked once the worker's frequency has passed since they were made.
+     * A worker retired by the LiDAR pool hands the detections it holds back to the bus and stops
+     * at once, so it is not sent new detections while it drains.
+     * The worker goes down at the first tick after every camera went down, once it holds no
+     * detection: no detection can reach it anymore.
      */
     @Override
     protected void initialize() {
-        // TODO Implement this
+        if (checkpoints != null) {
+            checkpoints.register(this);
+        }
+        SimulationContext.sensorStarted(false);
+        subscribeEvent(DetectObjectsEvent.class, event -> {
+            if (isDue(event)) {
+                track(event);
+            } else {
+                waiting.add(event);
+                waitingCount = waiting.size();
+            }
+        });
+        subscribeBroadcast(TickBroadcast.class, tick -> {
+            currentTick = tick.getTick();
+            flush();
+            if (waiting.isEmpty() && SimulationContext.camerasFinishedBefore(currentTick)) {
+                finish();
+            }
+        });
+        subscribeBroadcast(LiDarRetireBroadcast.class, retire -> {
+            if (retire.getServiceName().equals(getName())) {
+                handOff();
+                finish();
+                terminate();
+            }
+        });
+        subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> terminate());
+        initialized.countDown();
+        SimulationContext.serviceInitialized();
+    }
+
+    /**
+     * Waits until the service has subscribed to its messages.
+     */
+    public void awaitInitialized() throws InterruptedException {
+        initialized.await();
+    }
+
+    /**
+     * @return The detections sent to this service that it has not tracked yet: the ones queued
+     *         to it and the ones waiting for the worker's frequency. May be called from any thread.
+     */
+    public int getBacklog() {
+        return bus.getQueuedCount(this, DetectObjectsEvent.class) + waitingCount;
+    }
+
+    // Sets the tick of a service started during the simulation, before its thread starts
+    void setCurrentTick(int tick) {
+        currentTick = tick;
+    }
+
+    /**
+     * @return The worker of this service.
+     */
+    public LiDarWorkerTracker getWorker() {
+        return worker;
+    }
+
+    @Override
+    public String getCheckpointName() {
+        return getName();
+    }
+
+    @Override
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+        out.writeInt(waiting.size());
+        for (DetectObjectsEvent event : waiting) {
+            CheckpointLog.writeFrame(out, event.getDetectedObjects());
+        }
+    }
+
+    /**
+     * Restores the detections that were waiting, in full. Nobody waits for their results.
+     */
+    @Override
+    public void restoreCheckpoint(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            waiting.add(new DetectObjectsEvent(CheckpointLog.readFrame(in)));
+        }
+        waitingCount = waiting.size();
+    }
+
+    private boolean isDue(DetectObjectsEvent event) {
+        return event.getDetectedObjects().getTime() + worker.getFrequency() <= currentTick;
+    }
+
+    private void flush() {
+        Iterator<DetectObjectsEvent> it = waiting.iterator();
+        while (it.hasNext()) {
+            DetectObjectsEvent event = it.next();
+            if (isDue(event)) {
+                it.remove();
+                track(event);
+            }
+        }
+        waitingCount = waiting.size();
+    }
+
+    // Sends the waiting detections again, for the other workers to track. Their senders are
+    // told they were handled, the new events carry the same frames and wait just as long.
+    private void handOff() {
+        for (DetectObjectsEvent event : waiting) {
+            sendEvent(new DetectObjectsEvent(event.getDetectedObjects()));
+            complete(event, true);
+        }
+        waiting.clear();
+        waitingCount = 0;
+    }
+
+    private void finish() {
+        if (worker.getStatus() == STATUS.UP) {
+            worker.setStatus(STATUS.DOWN);
+            SimulationContext.sensorFinished(false, currentTick);
+        }
+    }
+
+    private void track(DetectObjectsEvent event) {
+        ArrayList<TrackedObject> tracked = worker.track(event.getDetectedObjects(), database);
+        if (!tracked.isEmpty()) {
+            statistics.increaseNumTrackedObjects(tracked.size());
+            worker.recordTrackedObjects(tracked);
+            sendEvent(new TrackedObjectsEvent(tracked));
+        }
+        complete(event, true);
+    }
+
+    private static LiDarDataBase contextDataBase() {
+        SimulationContext context = SimulationContext.current();
+        LiDarDataBase database = context == null ? null : context.getLiDarDataBase();
+        if (database == null) {
+            throw new IllegalStateException("the LiDAR database of the current simulation was not created");
+        }
+        return database;
     }
 }
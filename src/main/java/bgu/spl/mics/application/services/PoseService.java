@@ -1,12 +1,21 @@
 package bgu.spl.mics.application.services;
 
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.PoseEvent;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.GPSIMU;
+import bgu.spl.mics.application.objects.Pose;
+import bgu.spl.mics.application.objects.STATUS;
+import bgu.spl.mics.application.objects.SimulationContext;
 
 /**
  * PoseService is responsible for maintaining the robot's current pose (position and orientation)
  * and broadcasting PoseEvents at every tick.
  */
 public class PoseService extends MicroService {
+    private final GPSIMU gpsimu;
 
     /**
      * Constructor for PoseService.
@@ -14,16 +23,33 @@ public class PoseService extends MicroService {
      * @param gpsimu The GPSIMU object that provides the robot's pose data.
      */
     public PoseService(GPSIMU gpsimu) {
-        super("Change_This_Name");
-        // TODO Implement this
+        super("PoseService");
+        this.gpsimu = gpsimu;
     }
 
     /**
      * Initializes the PoseService.
      * Subscribes to TickBroadcast and sends PoseEvents at every tick based on the current pose.
+     * A tick the pose data holds no pose for sends nothing. The service keeps no other state,
+     * so a resumed simulation needs nothing restored: its first tick follows the checkpoint.
+     * The GPSIMU goes down at the first tick past its last pose.
      */
     @Override
     protected void initialize() {
-        // TODO Implement this
+        SimulationContext.sensorStarted(false);
+        subscribeBroadcast(TickBroadcast.class, tick -> {
+            gpsimu.setCurrentTick(tick.getTick());
+            Pose pose = gpsimu.getPose(tick.getTick());
+            if (pose != null) {
+                sendEvent(new PoseEvent(pose));
+            }
+            if (tick.getTick() > gpsimu.getLastPoseTime() && gpsimu.getStatus() == STATUS.UP) {
+                gpsimu.setStatus(STATUS.DOWN);
+                SimulationContext.sensorFinished(false, tick.getTick());
+            }
+        });
+        subscribeBroadcast(TerminatedBroadcast.class, terminated -> terminate());
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> terminate());
+        SimulationContext.serviceInitialized();
     }
 }
@@ -1,12 +1,31 @@
 package bgu.spl.mics.application.services;
 
+import bgu.spl.mics.MessageBusImpl;
 import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.CrashedBroadcast;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.CheckpointLog;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import bgu.spl.mics.jfr.TickProcessed;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TimeService acts as the global timer for the system, broadcasting TickBroadcast messages
  * at regular intervals and controlling the simulation's duration.
  */
 public class TimeService extends MicroService {
+    private final int tickTime; // the duration of each tick in milliseconds
+    private final int duration; // the total number of ticks before the service terminates
+    private final int startTick; // the last tick of the resumed checkpoint, 0 for a new run
+    private final CheckpointLog checkpoints; // the checkpoint log of the simulation, null if not checkpointed
+    private final StatisticalFolder statistics; // the statistics whose system runtime is the current tick
+    private final SimulationContext context; // the run whose sensors may end it early, null to run for the whole duration
+    private TickProcessed tickRecord; // the Flight Recorder event of the current tick
+    private long tickSentAt; // the System.nanoTime() the current tick was sent at
 
     /**
      * Constructor for TimeService.
@@ -15,16 +34,109 @@ public class TimeService extends MicroService {
      * @param Duration  The total number of ticks before the service terminates.
      */
     public TimeService(int TickTime, int Duration) {
-        super("Change_This_Name");
-        // TODO Implement this
+        this(TickTime, Duration, 0, null);
+    }
+
+    /**
+     * The statistics are taken from the current simulation context.
+     *
+     * @param TickTime    The duration of each tick in milliseconds.
+     * @param Duration    The total number of ticks before the service terminates.
+     * @param startTick   The last tick of the checkpoint the simulation resumes from, the first
+     *                    tick sent is the next one. 0 for a new run.
+     * @param checkpoints The log to take the checkpoints in, null for none.
+     */
+    public TimeService(int TickTime, int Duration, int startTick, CheckpointLog checkpoints) {
+        this(TickTime, Duration, startTick, checkpoints, SimulationContext.current() != null
+                ? SimulationContext.current().getStatistics() : new StatisticalFolder());
+    }
+
+    /**
+     * @param TickTime    The duration of each tick in milliseconds.
+     * @param Duration    The total number of ticks before the service terminates.
+     * @param startTick   The last tick of the checkpoint the simulation resumes from, the first
+     *                    tick sent is the next one. 0 for a new run.
+     * @param checkpoints The log to take the checkpoints in, null for none.
+     * @param statistics  The statistics to set the system runtime of at every tick.
+     */
+    public TimeService(int TickTime, int Duration, int startTick, CheckpointLog checkpoints,
+            StatisticalFolder statistics) {
+        super("TimeService");
+        this.tickTime = TickTime;
+        this.duration = Duration;
+        this.startTick = startTick;
+        this.checkpoints = checkpoints;
+        this.statistics = statistics;
+        this.context = SimulationContext.current();
     }
 
     /**
      * Initializes the TimeService.
-     * Starts broadcasting TickBroadcast messages and terminates after the specified duration.
+     * Starts broadcasting TickBroadcast messages and terminates after the specified duration, or
+     * earlier at the first tick by the end of which every sensor of the simulation context went
+     * down, once every service is done with the last tick, with a TerminatedBroadcast to the services.
+     * The service receives its own ticks and sends the next one once every service is done with
+     * the current one, and at least a tick time after the current one was sent. With a tick time
+     * of 0 the simulation runs as fast as the services handle their ticks, one tick at a time.
+     * When a checkpoint is due at the end of a tick, it is taken before the next tick is sent.
+     * The system runtime of the statistics is the last tick sent, so live metrics see the
+     * current tick. If a sensor crashes, the service stops and the system runtime is the tick of
+     * the crash: the services received the CrashedBroadcast before the next tick.
      */
     @Override
     protected void initialize() {
-        // TODO Implement this
+        subscribeBroadcast(TickBroadcast.class, tick -> {
+            try {
+                MessageBusImpl.getInstance().awaitQuiescence(this);
+                if (checkpoints != null && checkpoints.isDue(tick.getTick())) {
+                    checkpoint(tick.getTick());
+                }
+                if (tick.getTick() >= duration || (context != null && context.sensorsFinished())) {
+                    commitTick(tick.getTick());
+                    sendBroadcast(new TerminatedBroadcast(tick.getTick()));
+                    terminate();
+                    return;
+                }
+                long left = tickSentAt + TimeUnit.MILLISECONDS.toNanos(tickTime) - System.nanoTime();
+                if (left > 0) {
+                    TimeUnit.NANOSECONDS.sleep(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                terminate();
+                return;
+            }
+            commitTick(tick.getTick());
+            sendTick(tick.getTick() + 1);
+        });
+        subscribeBroadcast(CrashedBroadcast.class, crashed -> {
+            statistics.setSystemRuntime(crashed.getTick());
+            terminate();
+        });
+        sendTick(startTick + 1);
+    }
+
+    // Takes a checkpoint at the end of the tick, while no other service is handling a message
+    private void checkpoint(int tick) {
+        try {
+            checkpoints.capture(tick);
+        } catch (IOException e) {
+            System.err.println("Could not take the checkpoint of tick " + tick + ": " + e.getMessage());
+        }
+    }
+
+    private void sendTick(int tick) {
+        tickRecord = new TickProcessed();
+        tickRecord.begin();
+        tickSentAt = System.nanoTime();
+        statistics.setSystemRuntime(tick);
+        sendBroadcast(new TickBroadcast(tick));
+    }
+
+    private void commitTick(int tick) {
+        if (tickRecord.shouldCommit()) {
+            tickRecord.tick = tick;
+            tickRecord.commit();
+        }
     }
 }
@@ -0,0 +1,138 @@
+package bgu.spl.mics.application.tools;
+
+import bgu.spl.mics.Broadcast;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.MicroService;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the cost of the MicroService event loop per handled message, against the number
+ * of message types the micro-service subscribed to.
+ * <p>
+ * For every number of types, the messages are queued before the micro-service starts handling
+ * them, so only taking a message from the queue and dispatching it to its callback is timed.
+ * The bytes allocated by the micro-service thread are read from the JVM's per-thread
+ * allocation counter. Every configuration runs {@code --rounds} times and the last round is
+ * reported, the earlier ones warm the JIT up.
+ * </p>
+ * Usage: {@code DispatchBenchmark [--messages=N] [--rounds=N]}
+ */
+public class DispatchBenchmark {
+    // the message types a micro-service can subscribe to, one class each
+    private static final class M0 implements Broadcast { }
+    private static final class M1 implements Broadcast { }
+    private static final class M2 implements Broadcast { }
+    private static final class M3 implements Broadcast { }
+    private static final class M4 implements Broadcast { }
+    private static final class M5 implements Broadcast { }
+    private static final class M6 implements Broadcast { }
+    private static final class M7 implements Broadcast { }
+    private static final class M8 implements Broadcast { }
+    private static final class M9 implements Broadcast { }
+    private static final class M10 implements Broadcast { }
+    private static final class M11 implements Broadcast { }
+    private static final class M12 implements Broadcast { }
+    private static final class M13 implements Broadcast { }
+    private static final class M14 implements Broadcast { }
+    private static final class M15 implements Broadcast { }
+    private static final class Start implements Broadcast { }
+    private static final class Stop implements Broadcast { }
+
+    private static final Broadcast[] MESSAGES = { new M0(), new M1(), new M2(), new M3(), new M4(), new M5(),
+            new M6(), new M7(), new M8(), new M9(), new M10(), new M11(), new M12(), new M13(), new M14(), new M15() };
+
+    public static void main(String[] args) throws InterruptedException {
+        int messages = 2000000;
+        int rounds = 5;
+        for (String arg : args) {
+            if (arg.startsWith("--messages=")) {
+                messages = Integer.parseInt(arg.substring("--messages=".length()));
+            } else if (arg.startsWith("--rounds=")) {
+                rounds = Integer.parseInt(arg.substring("--rounds=".length()));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + arg);
+            }
+        }
+        System.out.printf("%6s %12s %14s %16s%n", "types", "messages", "ns/message", "bytes/message");
+        for (int types = 1; types <= MESSAGES.length; types *= 2) {
+            Receiver receiver = null;
+            for (int round = 0; round < rounds; round++) {
+                receiver = run(types, messages);
+            }
+            System.out.printf("%6d %12d %14.1f %16.2f%n", types, messages,
+                    (double) (receiver.endNanos - receiver.startNanos) / messages,
+                    (double) (receiver.endBytes - receiver.startBytes) / messages);
+        }
+    }
+
+    private static Receiver run(int types, int messages) throws InterruptedException {
+        List<Class<? extends Broadcast>> subscribed = new ArrayList<>();
+        for (int i = 0; i < types; i++) {
+            subscribed.add(MESSAGES[i].getClass());
+        }
+        Receiver receiver = new Receiver(subscribed);
+        Thread thread = new Thread(receiver, receiver.getName());
+        thread.start();
+        receiver.subscribed.await();
+        MessageBusImpl bus = MessageBusImpl.getInstance();
+        bus.sendBroadcast(new Start());
+        for (int i = 0; i < messages; i++) {
+            bus.sendBroadcast(MESSAGES[i % types]);
+        }
+        bus.sendBroadcast(new Stop());
+        receiver.go.countDown();
+        thread.join();
+        if (receiver.handled != messages) {
+            throw new IllegalStateException("handled " + receiver.handled + " messages out of " + messages);
+        }
+        return receiver;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // counts the messages of its types, the timed section runs from Start to Stop
+    private static class Receiver extends MicroService {
+        private final List<Class<? extends Broadcast>> types;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private final CountDownLatch go = new CountDownLatch(1); // released once every message is queued
+        private long handled;
+        private long startNanos;
+        private long endNanos;
+        private long startBytes;
+        private long endBytes;
+
+        private Receiver(List<Class<? extends Broadcast>> types) {
+            super("DispatchBenchmark");
+            this.types = types;
+        }
+
+        @Override
+        protected void initialize() {
+            for (Class<? extends Broadcast> type : types) {
+                subscribeBroadcast(type, b -> handled++);
+            }
+            subscribeBroadcast(Start.class, b -> {
+                startBytes = allocatedBytes();
+                startNanos = System.nanoTime();
+            });
+            subscribeBroadcast(Stop.class, b -> {
+                endNanos = System.nanoTime();
+                endBytes = allocatedBytes();
+                terminate();
+            });
+            subscribed.countDown();
+            try {
+                go.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
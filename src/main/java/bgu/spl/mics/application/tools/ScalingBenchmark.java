@@ -0,0 +1,109 @@
+package bgu.spl.mics.application.tools;
+
+import bgu.spl.mics.application.GurionRockRunner;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Runs {@link GurionRockRunner} over synthetic scenarios of growing size and reports, for
+ * every size, the wall time, the peak heap usage and the throughput in detected objects
+ * and cloud points per second.
+ * <p>
+ * Every size runs in this JVM after a GC and a reset of the heap pools' peak usage, so
+ * start the benchmark with a fixed heap (e.g. {@code -Xms4g -Xmx4g}) for comparable numbers.
+ * The scenarios have a tick time of 0, so the wall time is the time the services take, not the
+ * time the clock sleeps. Every run is checked to have detected, tracked and fused every object,
+ * so a failed run is reported instead of timed.
+ * </p>
+ * Usage: {@code ScalingBenchmark <work dir> [--max-scale=N]}
+ */
+public class ScalingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScalingBenchmark <work dir> [--max-scale=N]");
+            return;
+        }
+        int maxScale = 8;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--max-scale=")) {
+                maxScale = Integer.parseInt(args[i].substring("--max-scale=".length()));
+            } else {
+                throw new IllegalArgumentException("unknown option: " + args[i]);
+            }
+        }
+        Path workDir = Paths.get(args[0]);
+        System.out.printf("%6s %8s %8s %8s %8s %8s %12s %14s %14s %14s%n", "scale", "cameras", "workers",
+                "objects", "points", "ticks", "wall (ms)", "peak heap (MB)", "objects/s", "points/s");
+        for (int scale = 1; scale <= maxScale; scale *= 2) {
+            int cameras = scale;
+            int workers = scale;
+            int objects = 5 * scale;
+            int points = 10 * scale;
+            int ticks = 100 * scale;
+            ScenarioGenerator generator = new ScenarioGenerator(cameras, workers, objects, points, ticks);
+            generator.setTickTime(0);
+            Path config = generator.write(workDir.resolve("scale" + scale));
+
+            System.gc();
+            resetPeakHeap();
+            long start = System.nanoTime();
+            GurionRockRunner.main(new String[] { config.toString() });
+            long nanos = System.nanoTime() - start;
+            long peak = peakHeap();
+            check(config.resolveSibling("output_file.json"), generator, scale);
+
+            double seconds = Math.max(nanos, 1) / 1e9;
+            long detections = generator.getTotalDetections();
+            System.out.printf("%6d %8d %8d %8d %8d %8d %12.1f %14.1f %14.0f %14.0f%n", scale, cameras, workers,
+                    objects, points, ticks, nanos / 1e6, peak / 1048576.0, detections / seconds,
+                    detections * points / seconds);
+        }
+    }
+
+    // Fails unless the run wrote an output with every object detected and tracked
+    private static void check(Path output, ScenarioGenerator generator, int scale) throws IOException {
+        if (!Files.exists(output)) {
+            throw new IllegalStateException("the run of scale " + scale + " wrote no output");
+        }
+        JsonObject statistics;
+        try (Reader reader = Files.newBufferedReader(output, StandardCharsets.UTF_8)) {
+            statistics = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        long detected = statistics.get("numDetectedObjects").getAsLong();
+        long tracked = statistics.get("numTrackedObjects").getAsLong();
+        if (detected != generator.getTotalDetections() || tracked != detected
+                || statistics.get("numLandmarks").getAsInt() == 0) {
+            throw new IllegalStateException("the run of scale " + scale + " detected " + detected + " objects and tracked "
+                    + tracked + " out of " + generator.getTotalDetections());
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,255 @@
+package bgu.spl.mics.application.tools;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates a synthetic scenario: a configuration file together with the camera, LiDAR and
+ * pose data files it points to, in the format of the bundled example inputs.
+ * <p>
+ * Every camera detects {@code objectsPerTick} objects at every tick, drawn from a pool of
+ * objects of its own so that objects are detected again and again. The LiDAR data holds
+ * {@code pointsPerObject} cloud points for every detection. Optionally, the first camera
+ * reports an error at a given tick.
+ * </p>
+ * Usage: {@code ScenarioGenerator <output dir> [--cameras=N] [--workers=N] [--objects=N]
+ * [--points=N] [--ticks=N] [--tick-time=N] [--error-tick=N] [--seed=N]}
+ */
+public class ScenarioGenerator {
+    private static final int POOL_FACTOR = 10; // the pool of a camera holds POOL_FACTOR * objectsPerTick objects
+
+    private final int cameras;
+    private final int workers;
+    private final int objectsPerTick;
+    private final int pointsPerObject;
+    private final int ticks;
+    private int tickTime = 1;
+    private int errorTick = -1; // the tick the first camera reports an error at, -1 for no error
+    private long seed = 1;
+
+    public ScenarioGenerator(int cameras, int workers, int objectsPerTick, int pointsPerObject, int ticks) {
+        if (cameras <= 0 || workers <= 0 || objectsPerTick <= 0 || pointsPerObject <= 0 || ticks <= 0) {
+            throw new IllegalArgumentException("every count must be positive");
+        }
+        this.cameras = cameras;
+        this.workers = workers;
+        this.objectsPerTick = objectsPerTick;
+        this.pointsPerObject = pointsPerObject;
+        this.ticks = ticks;
+    }
+
+    public void setTickTime(int tickTime) {
+        this.tickTime = tickTime;
+    }
+
+    /**
+     * Makes the first camera report "Camera disconnected" at {@code errorTick}, -1 for no error.
+     */
+    public void setErrorTick(int errorTick) {
+        this.errorTick = errorTick;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return The number of objects detected by all cameras over the whole scenario.
+     */
+    public long getTotalDetections() {
+        return (long) cameras * objectsPerTick * ticks;
+    }
+
+    /**
+     * Writes the scenario files to {@code dir}, creating it if needed.
+     *
+     * @return The path of the configuration file.
+     */
+    public Path write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        writeCameraData(dir.resolve("camera_data.json"));
+        writeLidarData(dir.resolve("lidar_data.json"));
+        writePoseData(dir.resolve("pose_data.json"));
+        Path config = dir.resolve("configuration_file.json");
+        writeConfiguration(config);
+        return config;
+    }
+
+    private void writeConfiguration(Path file) throws IOException {
+        try (JsonWriter out = open(file)) {
+            out.setIndent("  ");
+            out.beginObject();
+            out.name("Cameras").beginObject();
+            out.name("CamerasConfigurations").beginArray();
+            for (int c = 1; c <= cameras; c++) {
+                out.beginObject();
+                out.name("id").value(c);
+                out.name("frequency").value(0);
+                out.name("camera_key").value("camera" + c);
+                out.endObject();
+            }
+            out.endArray();
+            out.name("camera_datas_path").value("./camera_data.json");
+            out.endObject();
+            out.name("LiDarWorkers").beginObject();
+            out.name("LidarConfigurations").beginArray();
+            for (int w = 1; w <= workers; w++) {
+                out.beginObject();
+                out.name("id").value(w);
+                out.name("frequency").value(0);
+                out.endObject();
+            }
+            out.endArray();
+            out.name("lidars_data_path").value("./lidar_data.json");
+            out.endObject();
+            out.name("poseJsonFile").value("./pose_data.json");
+            out.name("TickTime").value(tickTime);
+            out.name("Duration").value(ticks);
+            out.endObject();
+        }
+    }
+
+    private void writeCameraData(Path file) throws IOException {
+        try (JsonWriter out = open(file)) {
+            out.beginObject();
+            for (int c = 1; c <= cameras; c++) {
+                out.name("camera" + c).beginArray();
+                for (int t = 1; t <= ticks; t++) {
+                    out.beginObject();
+                    out.name("time").value(t);
+                    out.name("detectedObjects").beginArray();
+                    for (int j = 0; j < objectsPerTick; j++) {
+                        out.beginObject();
+                        out.name("id").value(objectId(c, t, j));
+                        out.name("description").value("Synthetic Object");
+                        out.endObject();
+                    }
+                    if (c == 1 && t == errorTick) {
+                        out.beginObject();
+                        out.name("id").value("ERROR");
+                        out.name("description").value("Camera disconnected");
+                        out.endObject();
+                    }
+                    out.endArray();
+                    out.endObject();
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+    }
+
+    private void writeLidarData(Path file) throws IOException {
+        Random random = new Random(seed);
+        try (JsonWriter out = open(file)) {
+            out.beginArray();
+            for (int t = 1; t <= ticks; t++) {
+                for (int c = 1; c <= cameras; c++) {
+                    for (int j = 0; j < objectsPerTick; j++) {
+                        String id = objectId(c, t, j);
+                        // every object lies around a fixed centre, derived from its ID
+                        Random centre = new Random(seed ^ id.hashCode());
+                        double x = centre.nextDouble() * 20 - 10;
+                        double y = centre.nextDouble() * 20 - 10;
+                        out.beginObject();
+                        out.name("time").value(t);
+                        out.name("id").value(id);
+                        out.name("cloudPoints").beginArray();
+                        for (int p = 0; p < pointsPerObject; p++) {
+                            out.beginArray();
+                            out.value(x + p * 0.05 + random.nextGaussian() * 0.01);
+                            out.value(y + random.nextGaussian() * 0.01);
+                            out.value(0.104);
+                            out.endArray();
+                        }
+                        out.endArray();
+                        out.endObject();
+                    }
+                }
+            }
+            out.endArray();
+        }
+    }
+
+    private void writePoseData(Path file) throws IOException {
+        try (JsonWriter out = open(file)) {
+            out.beginArray();
+            for (int t = 1; t <= ticks; t++) {
+                double angle = t * 0.01;
+                out.beginObject();
+                out.name("time").value(t);
+                out.name("x").value(Math.round(20 * Math.cos(angle) * 1e4) / 1e4);
+                out.name("y").value(Math.round(20 * Math.sin(angle) * 1e4) / 1e4);
+                out.name("yaw").value(Math.round((Math.toDegrees(angle) % 360 - 180) * 100) / 100.0);
+                out.endObject();
+            }
+            out.endArray();
+        }
+    }
+
+    private String objectId(int camera, int tick, int index) {
+        return "C" + camera + "_Object_" + ((tick * objectsPerTick + index) % (POOL_FACTOR * objectsPerTick));
+    }
+
+    private static JsonWriter open(Path file) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        return new JsonWriter(writer);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScenarioGenerator <output dir> [--cameras=N] [--workers=N] [--objects=N]"
+                    + " [--points=N] [--ticks=N] [--tick-time=N] [--error-tick=N] [--seed=N]");
+            return;
+        }
+        int cameras = 1, workers = 1, objects = 2, points = 2, ticks = 30, tickTime = 1, errorTick = -1;
+        long seed = 1;
+        for (int i = 1; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("expecting --name=value, received: " + args[i]);
+            }
+            switch (option[0]) {
+                case "--cameras":
+                    cameras = Integer.parseInt(option[1]);
+                    break;
+                case "--workers":
+                    workers = Integer.parseInt(option[1]);
+                    break;
+                case "--objects":
+                    objects = Integer.parseInt(option[1]);
+                    break;
+                case "--points":
+                    points = Integer.parseInt(option[1]);
+                    break;
+                case "--ticks":
+                    ticks = Integer.parseInt(option[1]);
+                    break;
+                case "--tick-time":
+                    tickTime = Integer.parseInt(option[1]);
+                    break;
+                case "--error-tick":
+                    errorTick = Integer.parseInt(option[1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option: " + option[0]);
+            }
+        }
+        ScenarioGenerator generator = new ScenarioGenerator(cameras, workers, objects, points, ticks);
+        generator.setTickTime(tickTime);
+        generator.setErrorTick(errorTick);
+        generator.setSeed(seed);
+        Path config = generator.write(Paths.get(args[0]));
+        System.out.println("Wrote " + config);
+    }
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for {@link bgu.spl.mics.MessageBus#sendBroadcast(bgu.spl.mics.Broadcast)}.
+ */
+@Name("bgu.spl.mics.BroadcastSend")
+@Label("Broadcast Send")
+@Category({ "GurionRock", "MessageBus" })
+@Description("A broadcast was sent through the message-bus")
+public class BroadcastSend extends jdk.jfr.Event {
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Receivers")
+    @Description("The number of micro-services the broadcast was queued to")
+    public int receivers;
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for the execution of a {@link bgu.spl.mics.Callback} by a
+ * micro-service, its duration is the time spent in the callback.
+ */
+@Name("bgu.spl.mics.CallbackExecution")
+@Label("Callback Execution")
+@Category({ "GurionRock", "MicroService" })
+@Description("A micro-service handled a message taken from its queue")
+public class CallbackExecution extends jdk.jfr.Event {
+    @Label("Service")
+    public String service;
+
+    @Label("Message Type")
+    public String messageType;
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for {@link bgu.spl.mics.MessageBus#complete(bgu.spl.mics.Event, Object)}.
+ */
+@Name("bgu.spl.mics.EventCompletion")
+@Label("Event Completion")
+@Category({ "GurionRock", "MessageBus" })
+@Description("An event was completed and its future resolved")
+public class EventCompletion extends jdk.jfr.Event {
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Resolved")
+    @Description("Whether a pending future was found for the event")
+    public boolean resolved;
+}
@@ -0,0 +1,22 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for {@link bgu.spl.mics.MessageBus#sendEvent(bgu.spl.mics.Event)}.
+ */
+@Name("bgu.spl.mics.EventSend")
+@Label("Event Send")
+@Category({ "GurionRock", "MessageBus" })
+@Description("An event was sent through the message-bus")
+public class EventSend extends jdk.jfr.Event {
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Receiver")
+    @Description("The micro-service the event was queued to, null if it had no subscriber")
+    public String receiver;
+}
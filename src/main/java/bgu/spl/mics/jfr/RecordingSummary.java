@@ -0,0 +1,66 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarizes the GurionRock events of a Flight Recorder recording.
+ * <p>
+ * Prints, for every event type and for every (service, message type) pair of
+ * {@link CallbackExecution}, the number of events and their total, average and maximal
+ * duration.
+ * </p>
+ * Usage: {@code java -cp <classpath> bgu.spl.mics.jfr.RecordingSummary <recording.jfr>}
+ */
+public class RecordingSummary {
+
+    private static class Stats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private void add(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RecordingSummary <recording.jfr>");
+            return;
+        }
+        Map<String, Stats> byType = new TreeMap<>();
+        Map<String, Stats> byCallback = new TreeMap<>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(Paths.get(args[0]))) {
+            String type = event.getEventType().getName();
+            if (!type.startsWith("bgu.spl.mics.")) {
+                continue;
+            }
+            long nanos = event.getDuration().toNanos();
+            byType.computeIfAbsent(type, k -> new Stats()).add(nanos);
+            if (type.equals("bgu.spl.mics.CallbackExecution")) {
+                String key = event.getString("service") + " <- " + event.getString("messageType");
+                byCallback.computeIfAbsent(key, k -> new Stats()).add(nanos);
+            }
+        }
+        print("Event type", byType);
+        System.out.println();
+        print("Callback", byCallback);
+    }
+
+    private static void print(String title, Map<String, Stats> stats) {
+        System.out.printf("%-70s %10s %14s %12s %12s%n", title, "count", "total (ms)", "avg (us)", "max (us)");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            System.out.printf("%-70s %10d %14.3f %12.3f %12.3f%n", entry.getKey(), s.count, s.totalNanos / 1e6,
+                    s.totalNanos / 1e3 / s.count, s.maxNanos / 1e3);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package bgu.spl.mics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a tick of the simulation, its duration is the time from
+ * the TickBroadcast of the tick until the next one was sent. The handling of the
+ * TickBroadcast by every service is recorded by {@link CallbackExecution}.
+ */
+@Name("bgu.spl.mics.TickProcessed")
+@Label("Tick Processed")
+@Category({ "GurionRock", "Simulation" })
+@Description("A simulation tick was broadcast")
+public class TickProcessed extends jdk.jfr.Event {
+    @Label("Tick")
+    public int tick;
+}
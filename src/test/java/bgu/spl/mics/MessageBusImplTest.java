@@ -0,0 +1,415 @@
+package bgu.spl.mics;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageBusImplTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final class Work implements Event<Boolean> { }
+
+    private interface Status extends Broadcast { }
+    private static final class Up implements Status { }
+    private static final class Down implements Status { }
+
+    private static class Job implements Event<String> { }
+
+    // an event carrying the numbers of the events it absorbed
+    private static final class Batch implements Event<Boolean>, Coalescing<Batch> {
+        private final List<Integer> numbers = new ArrayList<>();
+
+        private Batch(int number) {
+            numbers.add(number);
+        }
+
+        @Override
+        public boolean absorb(Batch newer) {
+            numbers.addAll(newer.numbers);
+            return true;
+        }
+    }
+    private static final class UrgentJob extends Job { }
+
+    private static final class Numbered implements Event<Integer> {
+        private final int number;
+
+        private Numbered(int number) {
+            this.number = number;
+        }
+    }
+
+    private static final class Ping implements Broadcast { }
+
+    // a service counting every Numbered event it completes and every Ping it receives
+    private static final class Counter extends MicroService {
+        private final AtomicIntegerArray handled;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private volatile int pings;
+
+        private Counter(String name, AtomicIntegerArray handled) {
+            super(name);
+            this.handled = handled;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Numbered.class, event -> {
+                handled.incrementAndGet(event.number);
+                complete(event, event.number);
+            });
+            subscribeBroadcast(Ping.class, ping -> pings++);
+            subscribed.countDown();
+        }
+    }
+
+    private static Thread start(Counter counter) throws InterruptedException {
+        Thread thread = new Thread(counter, counter.getName());
+        thread.start();
+        counter.subscribed.await();
+        return thread;
+    }
+
+    // a service recording the messages it receives, and the callback each one went to
+    private static final class Recorder extends MicroService {
+        private final List<Class<? extends Broadcast>> broadcasts;
+        private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        @SafeVarargs
+        private Recorder(String name, Class<? extends Broadcast>... broadcasts) {
+            super(name);
+            this.broadcasts = Arrays.asList(broadcasts);
+        }
+
+        @Override
+        protected void initialize() {
+            for (Class<? extends Broadcast> type : broadcasts) {
+                subscribeBroadcast(type, b -> received.add(type.getSimpleName() + ":" + b.getClass().getSimpleName()));
+            }
+            subscribeEvent(Job.class, job -> {
+                received.add("Job:" + job.getClass().getSimpleName());
+                complete(job, getName());
+            });
+            subscribed.countDown();
+        }
+    }
+
+    private static Thread start(Recorder recorder) throws InterruptedException {
+        Thread thread = new Thread(recorder, recorder.getName());
+        thread.start();
+        recorder.subscribed.await();
+        return thread;
+    }
+
+    // a service running the callback it is given on every Work event
+    private static final class Worker extends MicroService {
+        private final Callback<Work> callback;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        private Worker(String name, Callback<Work> callback) {
+            super(name);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Work.class, callback);
+            subscribed.countDown();
+        }
+    }
+
+    private static Thread start(Worker worker, AtomicReference<Throwable> uncaught) throws InterruptedException {
+        Thread thread = new Thread(worker, worker.getName());
+        if (uncaught != null) {
+            thread.setUncaughtExceptionHandler((t, e) -> uncaught.set(e));
+        }
+        thread.start();
+        worker.subscribed.await();
+        return thread;
+    }
+
+    @Test
+    void awaitQuiescenceWaitsForARunningCallback() throws Exception {
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            CountDownLatch release = new CountDownLatch(1);
+            Worker worker = new Worker("Worker", work -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Thread thread = start(worker, null);
+            bus.sendEvent(new Work());
+            Thread waiter = new Thread(() -> {
+                try {
+                    bus.awaitQuiescence(null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            waiter.join(200);
+            assertTrue(waiter.isAlive(), "the barrier passed while a callback was running");
+            release.countDown();
+            waiter.join(TIMEOUT.toMillis());
+            assertFalse(waiter.isAlive(), "the barrier did not pass once the callback returned");
+            thread.interrupt();
+            thread.join();
+            return null;
+        });
+    }
+
+    @Test
+    void awaitQuiescencePassesWhenACallbackThrows() throws Exception {
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            CountDownLatch release = new CountDownLatch(1);
+            Worker worker = new Worker("Failing", work -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("callback failed");
+            });
+            AtomicReference<Throwable> uncaught = new AtomicReference<>();
+            Thread thread = start(worker, uncaught);
+            bus.sendEvent(new Work());
+            Future<Boolean> queued = bus.sendEvent(new Work());
+            release.countDown();
+
+            assertTimeoutPreemptively(TIMEOUT, () -> bus.awaitQuiescence(null));
+            thread.join(TIMEOUT.toMillis());
+            assertFalse(thread.isAlive());
+            assertInstanceOf(IllegalStateException.class, uncaught.get());
+            assertEquals(0, bus.getInFlightCount());
+            // the event queued behind the failed one had no other subscriber to go to
+            assertTrue(queued.isDone());
+            assertNull(queued.get(0, TimeUnit.MILLISECONDS));
+            assertNull(bus.sendEvent(new Work()), "the failed service is still subscribed");
+            return null;
+        });
+    }
+
+    @Test
+    void broadcastsReachTheSubscribersOfTheirSupertypesOnce() throws Exception {
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            Recorder any = new Recorder("Any", Status.class);
+            Recorder both = new Recorder("Both", Status.class, Up.class);
+            List<Thread> threads = new ArrayList<>(Arrays.asList(start(any), start(both)));
+            bus.sendBroadcast(new Up());
+            bus.sendBroadcast(new Down());
+            bus.awaitQuiescence(null);
+            assertEquals(Arrays.asList("Status:Up", "Status:Down"), any.received);
+            // the most specific subscribed type handles a message, once
+            assertEquals(Arrays.asList("Up:Up", "Status:Down"), both.received);
+
+            // a subscription after the routes of Up and Down were resolved is seen by the next send
+            Recorder down = new Recorder("Down", Down.class);
+            threads.add(start(down));
+            bus.sendBroadcast(new Down());
+            bus.awaitQuiescence(null);
+            assertEquals(Collections.singletonList("Down:Down"), down.received);
+            assertEquals(3, any.received.size());
+
+            // and so is an unregistration
+            for (Thread thread : threads) {
+                thread.interrupt();
+                thread.join();
+            }
+            bus.sendBroadcast(new Up());
+            bus.awaitQuiescence(null);
+            assertEquals(3, any.received.size());
+            return null;
+        });
+    }
+
+    @Test
+    void eventsOfASubclassAreSentRoundRobinToTheSubscribersOfTheirSuperclass() throws Exception {
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            Recorder first = new Recorder("First");
+            Recorder second = new Recorder("Second");
+            List<Thread> threads = Arrays.asList(start(first), start(second));
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(bus.sendEvent(new UrgentJob()));
+            }
+            bus.awaitQuiescence(null);
+            List<String> handlers = new ArrayList<>();
+            for (Future<String> future : futures) {
+                handlers.add(future.get(0, TimeUnit.MILLISECONDS));
+            }
+            assertEquals(2, Collections.frequency(handlers, "First"));
+            assertEquals(2, Collections.frequency(handlers, "Second"));
+            assertEquals(Collections.nCopies(2, "Job:UrgentJob"), first.received);
+            for (Thread thread : threads) {
+                thread.interrupt();
+                thread.join();
+            }
+            assertNull(bus.sendEvent(new UrgentJob()));
+            return null;
+        });
+    }
+
+    @Test
+    void coalescingEventsOnlyMergeAtTheTailOfTheQueue() throws Exception {
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch subscribed = new CountDownLatch(1);
+            List<String> received = Collections.synchronizedList(new ArrayList<>());
+            MicroService receiver = new MicroService("Receiver") {
+                @Override
+                protected void initialize() {
+                    subscribeEvent(Work.class, work -> {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        received.add("Work");
+                        complete(work, true);
+                    });
+                    subscribeEvent(Batch.class, batch -> {
+                        received.add("Batch" + batch.numbers);
+                        complete(batch, true);
+                    });
+                    subscribed.countDown();
+                }
+            };
+            Thread thread = new Thread(receiver, receiver.getName());
+            thread.start();
+            subscribed.await();
+            // the receiver is busy, the following messages wait in its queue
+            bus.sendEvent(new Work());
+            List<Future<Boolean>> futures = new ArrayList<>();
+            futures.add(bus.sendEvent(new Batch(1)));
+            futures.add(bus.sendEvent(new Batch(2)));
+            futures.add(bus.sendEvent(new Batch(3)));
+            bus.sendEvent(new Work());
+            futures.add(bus.sendEvent(new Batch(4)));
+            futures.add(bus.sendEvent(new Batch(5)));
+            release.countDown();
+            bus.awaitQuiescence(null);
+
+            // batch 4 was not merged into batch 1, which would have moved it ahead of the second Work
+            assertEquals(Arrays.asList("Work", "Batch[1, 2, 3]", "Work", "Batch[4, 5]"), received);
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.isDone());
+                assertTrue(future.get(0, TimeUnit.MILLISECONDS));
+            }
+            thread.interrupt();
+            thread.join();
+            return null;
+        });
+    }
+
+    @Test
+    void messagesAreNeitherLostNorDuplicatedWhileServicesRegisterAndUnregister() throws Exception {
+        int senders = 2;
+        int eventsPerSender = 20000;
+        int pingEvery = 16;
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            AtomicIntegerArray handled = new AtomicIntegerArray(senders * eventsPerSender);
+            // two services stay throughout, so an event left with a departing one has somewhere to go
+            List<Counter> stayers = Arrays.asList(new Counter("Stayer1", handled), new Counter("Stayer2", handled));
+            List<Thread> stayerThreads = new ArrayList<>();
+            for (Counter stayer : stayers) {
+                stayerThreads.add(start(stayer));
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            AtomicInteger started = new AtomicInteger();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<Thread> churners = new ArrayList<>();
+            for (int c = 0; c < 2; c++) {
+                churners.add(new Thread(() -> {
+                    try {
+                        while (!stop.get()) {
+                            Thread thread = start(new Counter("Churner" + started.incrementAndGet(), handled));
+                            Thread.sleep(0, ThreadLocalRandom.current().nextInt(1000000));
+                            thread.interrupt();
+                            thread.join();
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }));
+            }
+            List<List<Future<Integer>>> futures = new ArrayList<>();
+            List<Thread> senderThreads = new ArrayList<>();
+            for (int s = 0; s < senders; s++) {
+                int first = s * eventsPerSender;
+                List<Future<Integer>> sent = new ArrayList<>();
+                futures.add(sent);
+                senderThreads.add(new Thread(() -> {
+                    for (int i = 0; i < eventsPerSender; i++) {
+                        sent.add(bus.sendEvent(new Numbered(first + i)));
+                        if (i % pingEvery == 0) {
+                            bus.sendBroadcast(new Ping());
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : churners) {
+                thread.start();
+            }
+            for (Thread thread : senderThreads) {
+                thread.start();
+            }
+            for (Thread thread : senderThreads) {
+                thread.join();
+            }
+            stop.set(true);
+            for (Thread thread : churners) {
+                thread.join();
+            }
+            assertTimeoutPreemptively(TIMEOUT, () -> bus.awaitQuiescence(null));
+
+            assertNull(failure.get());
+            assertTrue(started.get() > 0);
+            assertEquals(0, bus.getInFlightCount());
+            for (List<Future<Integer>> sent : futures) {
+                for (Future<Integer> future : sent) {
+                    assertTrue(future.isDone());
+                }
+            }
+            for (int number = 0; number < handled.length(); number++) {
+                assertEquals(1, handled.get(number), "times event " + number + " was handled");
+                Future<Integer> future = futures.get(number / eventsPerSender).get(number % eventsPerSender);
+                assertEquals(number, future.get(0, TimeUnit.MILLISECONDS));
+            }
+            for (Counter stayer : stayers) {
+                assertEquals(senders * ((eventsPerSender + pingEvery - 1) / pingEvery), stayer.pings, stayer.getName());
+            }
+            for (Thread thread : stayerThreads) {
+                thread.interrupt();
+                thread.join();
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,166 @@
+package bgu.spl.mics;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MessageJournalTest {
+    private static final int SENDERS = 4;
+    private static final int EVENTS = 5000; // per sender
+
+    @TempDir
+    Path dir;
+
+    private static final class Numbered implements Event<Boolean> {
+        private final int sender;
+        private final int number;
+
+        private Numbered(int sender, int number) {
+            this.sender = sender;
+            this.number = number;
+        }
+
+        @Override
+        public String toString() {
+            return sender + ":" + number;
+        }
+    }
+
+    private static final class NumberedCodec implements MessageCodec {
+        @Override
+        public int tagOf(Message m) {
+            return m instanceof Numbered ? 0 : -1;
+        }
+
+        @Override
+        public boolean encodes(Class<? extends Message> type) {
+            return Numbered.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public void encode(Message m, DataOutput out) throws IOException {
+            out.writeInt(((Numbered) m).sender);
+            out.writeInt(((Numbered) m).number);
+        }
+
+        @Override
+        public Message decode(int tag, DataInput in) throws IOException {
+            return new Numbered(in.readInt(), in.readInt());
+        }
+
+        @Override
+        public int tickOf(Message m) {
+            return -1;
+        }
+    }
+
+    // a service keeping the events it handled, in order
+    private static final class Receiver extends MicroService {
+        private final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+
+        private Receiver(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Numbered.class, event -> {
+                handled.add(event.toString());
+                complete(event, true);
+            });
+            subscribed.countDown();
+        }
+    }
+
+    private static List<String> entriesOf(String journalPath, String receiver) throws IOException {
+        List<String> entries = new ArrayList<>();
+        try (MessageJournal.Reader reader = new MessageJournal.Reader(journalPath, new NumberedCodec())) {
+            for (MessageJournal.Entry entry = reader.next(); entry != null; entry = reader.next()) {
+                if (entry.getReceiver().equals(receiver)) {
+                    entries.add(entry.getMessage().toString());
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    void entriesOfAReceiverAreInTheOrderItHandledThem() throws Exception {
+        String journalPath = dir.resolve("run.jrnl").toString();
+        List<Receiver> receivers = new ArrayList<>();
+        try (MessageJournal journal = new MessageJournal(journalPath, new NumberedCodec())) {
+            BusScope.call(() -> {
+                MessageBusImpl bus = MessageBusImpl.getInstance();
+                List<Thread> threads = new ArrayList<>();
+                for (int i = 0; i < 2; i++) {
+                    Receiver receiver = new Receiver("Receiver" + i);
+                    receivers.add(receiver);
+                    Thread thread = new Thread(receiver, receiver.getName());
+                    thread.start();
+                    receiver.subscribed.await();
+                    threads.add(thread);
+                }
+                List<Future<Boolean>> futures = Collections.synchronizedList(new ArrayList<Future<Boolean>>());
+                List<Thread> senders = new ArrayList<>();
+                for (int i = 0; i < SENDERS; i++) {
+                    int sender = i;
+                    senders.add(new Thread(() -> {
+                        for (int n = 0; n < EVENTS; n++) {
+                            futures.add(bus.sendEvent(new Numbered(sender, n)));
+                        }
+                    }));
+                }
+                for (Thread sender : senders) {
+                    sender.start();
+                }
+                for (Thread sender : senders) {
+                    sender.join();
+                }
+                for (Future<Boolean> future : futures) {
+                    future.get();
+                }
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                    thread.join();
+                }
+                return null;
+            }, journal);
+            assertEquals(SENDERS * EVENTS, journal.getEntries());
+        }
+        for (Receiver receiver : receivers) {
+            assertEquals(receiver.handled, entriesOf(journalPath, receiver.getName()));
+        }
+    }
+
+    @Test
+    void readerStopsAtAnEntryCutShort() throws Exception {
+        String journalPath = dir.resolve("crashed.jrnl").toString();
+        try (MessageJournal journal = new MessageJournal(journalPath, new NumberedCodec())) {
+            for (int n = 0; n < 3; n++) {
+                journal.record(new Numbered(0, n), "Receiver");
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(journalPath, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        try (MessageJournal.Reader reader = new MessageJournal.Reader(journalPath, new NumberedCodec())) {
+            assertNotNull(reader.next());
+            assertNotNull(reader.next());
+            assertNull(reader.next());
+        }
+    }
+}
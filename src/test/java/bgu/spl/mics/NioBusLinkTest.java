@@ -0,0 +1,178 @@
+package bgu.spl.mics;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioBusLinkTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private static final class Job implements Event<String> {
+        private final int number;
+
+        private Job(int number) {
+            this.number = number;
+        }
+    }
+
+    private static final class Ping implements Broadcast { }
+
+    private static final class Unknown implements Event<String> { }
+
+    private static final class Codec implements MessageCodec {
+        @Override
+        public int tagOf(Message m) {
+            return m instanceof Job ? 0 : m instanceof Ping ? 1 : -1;
+        }
+
+        @Override
+        public boolean encodes(Class<? extends Message> type) {
+            return Job.class.isAssignableFrom(type) || Ping.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public void encode(Message m, DataOutput out) throws IOException {
+            if (m instanceof Job) {
+                out.writeInt(((Job) m).number);
+            }
+        }
+
+        @Override
+        public Message decode(int tag, DataInput in) throws IOException {
+            return tag == 0 ? new Job(in.readInt()) : new Ping();
+        }
+
+        @Override
+        public int tickOf(Message m) {
+            return -1;
+        }
+    }
+
+    // a remote service: job 0 and the pings wait for their latch, the other jobs complete at once
+    private static final class Remote extends MicroService {
+        private final CountDownLatch releaseJob;
+        private final CountDownLatch releasePing;
+        private final CountDownLatch subscribed = new CountDownLatch(1);
+        private volatile int pings;
+
+        private Remote(String name, CountDownLatch releaseJob, CountDownLatch releasePing) {
+            super(name);
+            this.releaseJob = releaseJob;
+            this.releasePing = releasePing;
+        }
+
+        @Override
+        protected void initialize() {
+            subscribeEvent(Job.class, job -> {
+                if (job.number == 0) {
+                    await(releaseJob);
+                }
+                complete(job, "done " + job.number);
+            });
+            subscribeBroadcast(Ping.class, ping -> {
+                await(releasePing);
+                pings++;
+            });
+            subscribed.countDown();
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // a thread waiting for the quiescence of the calling thread's bus
+    private static Thread awaitQuiescence(MessageBusImpl bus) {
+        Thread waiter = new Thread(() -> {
+            try {
+                bus.awaitQuiescence(null);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        return waiter;
+    }
+
+    @Test
+    void typesTheCodecDoesNotEncodeAreRejected() {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        assertThrows(IllegalArgumentException.class, () -> NioBusLink.listen(address, new Codec(), Unknown.class));
+        // a supertype also covers messages the codec does not encode
+        assertThrows(IllegalArgumentException.class, () -> NioBusLink.connect(address, new Codec(), Broadcast.class));
+        assertThrows(IllegalArgumentException.class, () -> NioBusLink.connect(address, new Codec(), String.class));
+    }
+
+    @Test
+    void forwardedMessagesStayInFlightUntilThePeerAnswers() throws Exception {
+        CountDownLatch releaseJob = new CountDownLatch(1);
+        CountDownLatch releasePing = new CountDownLatch(1);
+        // two remote services, so the jobs sent one after the other run at the same time
+        List<Remote> remotes = new ArrayList<>();
+        List<Thread> remoteThreads = new ArrayList<>();
+        NioBusLink server = BusScope.call(() -> {
+            for (int i = 1; i <= 2; i++) {
+                Remote remote = new Remote("Remote" + i, releaseJob, releasePing);
+                remotes.add(remote);
+                remoteThreads.add(new Thread(remote, remote.getName()));
+                remoteThreads.get(remoteThreads.size() - 1).start();
+                remote.subscribed.await();
+            }
+            return NioBusLink.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new Codec());
+        });
+        BusScope.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            try (NioBusLink link = NioBusLink.connect(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), new Codec(),
+                    Job.class, Ping.class)) {
+                Future<String> stuck = bus.sendEvent(new Job(0));
+                Future<String> next = bus.sendEvent(new Job(1));
+                // the result of a later event is not held back by an event still running
+                assertEquals("done 1", next.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                assertFalse(stuck.isDone());
+
+                Thread waiter = awaitQuiescence(bus);
+                waiter.join(200);
+                assertTrue(waiter.isAlive(), "the barrier passed while the peer handled an event");
+                releaseJob.countDown();
+                waiter.join(TIMEOUT_MILLIS);
+                assertFalse(waiter.isAlive(), "the barrier did not pass once the peer answered");
+                assertEquals("done 0", stuck.get(0, TimeUnit.MILLISECONDS));
+
+                bus.sendBroadcast(new Ping());
+                waiter = awaitQuiescence(bus);
+                waiter.join(200);
+                assertTrue(waiter.isAlive(), "the barrier passed while the peer handled a broadcast");
+                releasePing.countDown();
+                waiter.join(TIMEOUT_MILLIS);
+                assertFalse(waiter.isAlive(), "the barrier did not pass once the peer acknowledged");
+                assertEquals(1, remotes.get(0).pings);
+                assertEquals(1, remotes.get(1).pings);
+            }
+            assertEquals(0, bus.getInFlightCount());
+            return null;
+        });
+        server.awaitClosed();
+        for (Thread thread : remoteThreads) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.tools.ScenarioGenerator;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GurionRockRunnerTest {
+    private static final int TICKS = 60;
+
+    @TempDir
+    Path dir;
+
+    private static Path scenario(Path dir, int tickTime) throws IOException {
+        ScenarioGenerator generator = new ScenarioGenerator(2, 2, 3, 4, TICKS);
+        generator.setTickTime(tickTime);
+        return generator.write(dir);
+    }
+
+    private static JsonElement read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader);
+        }
+    }
+
+    // adds an optional key to a configuration file
+    private static void configure(Path config, String key, JsonElement value) throws IOException {
+        JsonObject root = read(config).getAsJsonObject();
+        root.add(key, value);
+        try (Writer writer = Files.newBufferedWriter(config, StandardCharsets.UTF_8)) {
+            writer.write(root.toString());
+        }
+    }
+
+    // runs the runner in a JVM of its own, so it can be killed
+    private static Process startRunner(Path output, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(GurionRockRunner.class.getName());
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output.toFile()).start();
+    }
+
+    @Test
+    void runWritesTheOutputFile() throws IOException {
+        Path config = scenario(dir, 0);
+        GurionRockRunner.main(new String[] { config.toString() });
+        JsonElement output = read(dir.resolve("output_file.json"));
+        assertEquals(TICKS, output.getAsJsonObject().get("systemRuntime").getAsInt());
+        assertEquals(2 * 3 * TICKS, output.getAsJsonObject().get("numDetectedObjects").getAsInt());
+        assertEquals(2 * 3 * TICKS, output.getAsJsonObject().get("numTrackedObjects").getAsInt());
+        assertEquals(2 * 30, output.getAsJsonObject().get("numLandmarks").getAsInt());
+        assertEquals(2 * 30, output.getAsJsonObject().getAsJsonObject("landMarks").size());
+    }
+
+    @Test
+    void camerasSendingDeltasGiveTheSameOutput() throws IOException {
+        Path reference = scenario(dir.resolve("full"), 0);
+        GurionRockRunner.main(new String[] { reference.toString() });
+        Path config = scenario(dir.resolve("delta"), 0);
+        configure(config, "KeyframeInterval", JsonParser.parseString("4"));
+        GurionRockRunner.main(new String[] { config.toString() });
+        assertEquals(read(reference.resolveSibling("output_file.json")), read(config.resolveSibling("output_file.json")));
+    }
+
+    @Test
+    void pagedCameraDataGivesTheSameOutput() throws IOException {
+        Path reference = scenario(dir.resolve("loaded"), 0);
+        GurionRockRunner.main(new String[] { reference.toString() });
+        Path config = scenario(dir.resolve("paged"), 0);
+        configure(config, "CameraBlockTicks", JsonParser.parseString("7"));
+        GurionRockRunner.main(new String[] { config.toString() });
+        assertEquals(read(reference.resolveSibling("output_file.json")), read(config.resolveSibling("output_file.json")));
+    }
+
+    @Test
+    void batchRunsGiveTheOutputsOfSingleRuns() throws IOException {
+        // two different scenarios, each generated once for a single run and once for the batch
+        ScenarioGenerator first = new ScenarioGenerator(2, 2, 3, 4, TICKS);
+        ScenarioGenerator second = new ScenarioGenerator(3, 1, 2, 5, TICKS);
+        second.setSeed(7);
+        List<String> batch = new ArrayList<>();
+        List<Path> singles = new ArrayList<>();
+        for (ScenarioGenerator generator : Arrays.asList(first, second)) {
+            generator.setTickTime(0);
+            Path single = generator.write(dir.resolve("single" + batch.size()));
+            GurionRockRunner.main(new String[] { single.toString() });
+            singles.add(single.resolveSibling("output_file.json"));
+            batch.add(generator.write(dir.resolve("batch" + batch.size())).toString());
+        }
+        batch.add("--batch");
+        batch.add("--threads=2");
+        GurionRockRunner.main(batch.toArray(new String[0]));
+        assertFalse(read(singles.get(0)).equals(read(singles.get(1))));
+        for (int i = 0; i < singles.size(); i++) {
+            assertEquals(read(singles.get(i)), read(Paths.get(batch.get(i)).resolveSibling("output_file.json")));
+        }
+    }
+
+    @Test
+    void runExportsTheOccupancyGrid() throws IOException {
+        Path config = scenario(dir, 0);
+        configure(config, "OccupancyGridFile", JsonParser.parseString("\"grid.bin\""));
+        GurionRockRunner.main(new String[] { config.toString() });
+        long hits = 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(dir.resolve("grid.bin")))) {
+            assertEquals(0x4F475244, in.readInt());
+            in.readInt(); // version
+            in.readDouble(); // resolution
+            int tileSize = in.readInt();
+            int tiles = in.readInt();
+            assertTrue(tiles > 0);
+            for (int t = 0; t < tiles; t++) {
+                in.readInt();
+                in.readInt();
+                int occupied = in.readShort();
+                for (int c = 0; c < occupied; c++) {
+                    assertTrue(in.readShort() < tileSize * tileSize);
+                    hits += in.readShort();
+                }
+            }
+            assertEquals(-1, in.read());
+        }
+        // every cloud point of every tracked object is fused once
+        assertEquals(2 * 3 * TICKS * 4, hits);
+    }
+
+    @Test
+    void resumeIsRefusedWhenTheOccupancyGridIsExported() throws IOException {
+        Path config = scenario(dir, 0);
+        configure(config, "OccupancyGridFile", JsonParser.parseString("\"grid.bin\""));
+        Path checkpoint = dir.resolve("checkpoints.bin");
+        GurionRockRunner.main(new String[] { config.toString(), "--checkpoint=" + checkpoint, "--resume" });
+        assertFalse(Files.exists(dir.resolve("output_file.json")));
+        assertFalse(Files.exists(dir.resolve("grid.bin")));
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    void runWritesTheHistoryOfTheCounters() throws IOException {
+        Path config = scenario(dir, 0);
+        configure(config, "HistoryFile", JsonParser.parseString("\"history.csv\""));
+        GurionRockRunner.main(new String[] { config.toString() });
+        List<String> lines = Files.readAllLines(dir.resolve("history.csv"), StandardCharsets.UTF_8);
+        assertEquals("tick,numDetectedObjects,numTrackedObjects,numLandmarks", lines.get(0));
+        assertEquals(TICKS + 1, lines.size());
+        for (int tick = 1; tick <= TICKS; tick++) {
+            assertTrue(lines.get(tick).startsWith(tick + ","), lines.get(tick));
+        }
+    }
+
+    @Test
+    void runWritesSnapshotsOfTheOutput() throws IOException {
+        Path config = scenario(dir, 0);
+        configure(config, "SnapshotInterval", JsonParser.parseString("7"));
+        GurionRockRunner.main(new String[] { config.toString() });
+        JsonObject snapshot = read(dir.resolve("output_file_snapshot.json")).getAsJsonObject();
+        JsonObject output = read(dir.resolve("output_file.json")).getAsJsonObject();
+        // the last snapshot is taken at tick 56, before the last ticks were fused
+        int landmarks = snapshot.get("numLandmarks").getAsInt();
+        assertTrue(landmarks > 0 && landmarks <= output.get("numLandmarks").getAsInt(), "snapshot of " + landmarks);
+        assertEquals(landmarks, snapshot.getAsJsonObject("landMarks").size());
+        assertFalse(Files.exists(dir.resolve("output_file_snapshot.json.tmp")));
+    }
+
+    @Test
+    void exampleInputGivesItsReferenceOutput() throws IOException {
+        Path example = Paths.get("example input");
+        for (String file : Arrays.asList("configuration_file.json", "camera_data.json", "lidar_data.json",
+                "pose_data.json")) {
+            Files.copy(example.resolve(file), dir.resolve(file));
+        }
+        GurionRockRunner.main(new String[] { dir.resolve("configuration_file.json").toString() });
+        // the sensors are all down by tick 22, before the configured duration of 30 ticks
+        assertEquals(read(example.resolve("output_file.json")), read(dir.resolve("output_file.json")));
+    }
+
+    @Test
+    void crashedCameraWritesTheErrorOutput() throws IOException {
+        Path example = Paths.get("example_input_with_error");
+        for (String file : Arrays.asList("configuration_file.json", "camera_data.json", "lidar_data.json",
+                "pose_data.json")) {
+            Files.copy(example.resolve(file), dir.resolve(file));
+        }
+        GurionRockRunner.main(new String[] { dir.resolve("configuration_file.json").toString() });
+        JsonObject expected = read(example.resolve("error_output.json")).getAsJsonObject();
+        JsonObject output = read(dir.resolve("output_file.json")).getAsJsonObject();
+        assertEquals("Camera Disconnected", output.get("error").getAsString());
+        assertEquals(expected.get("faultySensor"), output.get("faultySensor"));
+        assertEquals(expected.get("lastCamerasFrame"), output.get("lastCamerasFrame"));
+        assertEquals(expected.get("lastLiDarWorkerTrackersFrame"), output.get("lastLiDarWorkerTrackersFrame"));
+        assertEquals(expected.getAsJsonArray("poses").size(), output.getAsJsonArray("poses").size());
+        JsonObject expectedStatistics = expected.getAsJsonObject("statistics");
+        JsonObject statistics = output.getAsJsonObject("statistics");
+        for (String key : Arrays.asList("systemRuntime", "numDetectedObjects", "numTrackedObjects", "numLandmarks")) {
+            assertEquals(expectedStatistics.get(key), statistics.get(key), key);
+        }
+        assertEquals(expectedStatistics.getAsJsonObject("landMarks").keySet(),
+                statistics.getAsJsonObject("landMarks").keySet());
+    }
+
+    @Test
+    void resumedRunMatchesAnUninterruptedRun() throws Exception {
+        Path reference = scenario(dir.resolve("reference"), 0);
+        GurionRockRunner.main(new String[] { reference.toString() });
+
+        Path config = scenario(dir.resolve("killed"), 25);
+        Path checkpoint = dir.resolve("run.ckpt");
+        Process killed = startRunner(dir.resolve("killed.log"), config.toString(), "--checkpoint=" + checkpoint,
+                "--checkpoint-interval=5");
+        // kill the run once a few checkpoints were written, half way through
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!Files.exists(checkpoint) || Files.size(checkpoint) < 15000) {
+            assertTrue(killed.isAlive(), "the run ended before it could be killed");
+            assertTrue(System.nanoTime() < deadline, "no checkpoint was written");
+            Thread.sleep(10);
+        }
+        killed.destroyForcibly().waitFor();
+        Path output = config.resolveSibling("output_file.json");
+        assertFalse(Files.exists(output), "the run ended before it was killed");
+
+        Path log = dir.resolve("resumed.log");
+        Process resumed = startRunner(log, config.toString(), "--checkpoint=" + checkpoint,
+                "--checkpoint-interval=5", "--resume");
+        assertTrue(resumed.waitFor(60, TimeUnit.SECONDS), "the resumed run did not end");
+        String printed = new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+        Matcher resumedAfter = Pattern.compile("after tick (\\d+)").matcher(printed);
+        assertTrue(resumedAfter.find(), printed);
+        int tick = Integer.parseInt(resumedAfter.group(1));
+        assertTrue(tick > 5 && tick < TICKS, "resumed after tick " + tick);
+
+        assertEquals(read(reference.resolveSibling("output_file.json")), read(output));
+    }
+}
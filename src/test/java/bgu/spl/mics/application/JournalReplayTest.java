@@ -0,0 +1,44 @@
+package bgu.spl.mics.application;
+
+import bgu.spl.mics.application.tools.ScenarioGenerator;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JournalReplayTest {
+    @TempDir
+    Path dir;
+
+    private static JsonObject read(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    @Test
+    void replayReproducesTheRecordedMap() throws Exception {
+        Path config = new ScenarioGenerator(3, 2, 4, 5, 80).write(dir);
+        Path journal = dir.resolve("run.jrnl");
+        GurionRockRunner.main(new String[] { config.toString(), "--journal=" + journal });
+        Path replayed = dir.resolve("replayed.json");
+        JournalReplay.replay(journal.toString(), replayed.toString());
+
+        JsonObject recorded = read(dir.resolve("output_file.json"));
+        JsonObject output = read(replayed);
+        assertTrue(recorded.get("numLandmarks").getAsInt() > 0);
+        assertEquals(recorded.get("systemRuntime"), output.get("systemRuntime"));
+        assertEquals(recorded.get("numLandmarks"), output.get("numLandmarks"));
+        // the doubles are printed in full, so equal text means bit-identical coordinates
+        assertEquals(recorded.get("landMarks").toString(), output.get("landMarks").toString());
+    }
+}
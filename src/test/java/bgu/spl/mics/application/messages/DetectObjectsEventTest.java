@@ -0,0 +1,52 @@
+package bgu.spl.mics.application.messages;
+
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.FrameDelta;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class DetectObjectsEventTest {
+    private static final int FRAMES = 100000;
+
+    // a wall seen in every frame, and an object that changes every frame
+    private static StampedDetectedObjects frame(int time) {
+        StampedDetectedObjects frame = new StampedDetectedObjects(time);
+        frame.getDetectedObjects().add(new DetectedObject("Wall_1", "Wall"));
+        frame.getDetectedObjects().add(new DetectedObject("Chair_" + time, "Chair"));
+        return frame;
+    }
+
+    private static List<String> ids(StampedDetectedObjects frame) {
+        List<String> ids = new ArrayList<>();
+        for (DetectedObject object : frame.getDetectedObjects()) {
+            ids.add(object.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void aLongChainOfDeltasIsRebuiltOnce() {
+        List<DetectObjectsEvent> events = new ArrayList<>();
+        events.add(new DetectObjectsEvent(frame(1)));
+        for (int time = 2; time <= FRAMES; time++) {
+            FrameDelta delta = new FrameDelta(frame(time - 1).getDetectedObjects(), frame(time));
+            events.add(new DetectObjectsEvent(events.get(events.size() - 1), delta));
+        }
+        // a chain this long overflowed the stack when it was rebuilt recursively
+        StampedDetectedObjects last = events.get(FRAMES - 1).getDetectedObjects();
+        assertEquals(FRAMES, last.getTime());
+        assertEquals(ids(frame(FRAMES)), ids(last));
+
+        // the frames on the way were kept, a worker reading an older event does not rebuild it
+        DetectObjectsEvent middle = events.get(FRAMES / 2);
+        StampedDetectedObjects frame = middle.getDetectedObjects();
+        assertSame(frame, middle.getDetectedObjects());
+        assertEquals(ids(frame(FRAMES / 2 + 1)), ids(frame));
+    }
+}
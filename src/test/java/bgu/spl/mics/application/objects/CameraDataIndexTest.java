@@ -0,0 +1,158 @@
+package bgu.spl.mics.application.objects;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CameraDataIndexTest {
+    // descriptions the scanner must read past: quotes, escapes, brackets and a "time" of their own
+    private static final List<String> DESCRIPTIONS = Arrays.asList("Wall", "say \\\"hi\\\"", "{\\\"time\\\": 99}",
+            "a ] and a }", "back\\\\slash", "caf\\u00e9 \u00e9");
+
+    @TempDir
+    Path dir;
+
+    // a frame of camera data, spread over lines like the bundled examples
+    private static void frame(StringBuilder json, int time, int objects, boolean timeFirst) {
+        StringBuilder detected = new StringBuilder("\"detectedObjects\": [");
+        for (int i = 0; i < objects; i++) {
+            // an unknown "time" key inside a detected object is skipped by Gson and must not be read as the frame's
+            detected.append(i == 0 ? "" : ",").append("\n      {\"id\": \"Object_").append(time).append('_').append(i)
+                    .append("\", \"description\": \"").append(DESCRIPTIONS.get((time + i) % DESCRIPTIONS.size()))
+                    .append("\", \"time\": ").append(time + 1000).append('}');
+        }
+        detected.append("\n    ]");
+        json.append("\n    {").append(timeFirst ? "\"time\": " + time + ", " + detected : detected + ",\n    \"time\": "
+                + time).append('}');
+    }
+
+    private Path write(String json) throws IOException {
+        Path file = dir.resolve("camera_data.json");
+        Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // three cameras with gaps in their frames, an escaped key and a camera without frames
+    private Path cameraData() throws IOException {
+        StringBuilder json = new StringBuilder("{");
+        List<String> keys = Arrays.asList("camera1", "camera\\\"2", "camera3");
+        for (int c = 0; c < keys.size(); c++) {
+            json.append(c == 0 ? "" : ",").append("\n  \"").append(keys.get(c)).append("\": [");
+            int frames = 0;
+            for (int time = 1; c < 2 && time <= 40; time++) {
+                if (time % (c + 3) != 0) {
+                    json.append(frames++ == 0 ? "" : ",");
+                    frame(json, time, time % 4, time % 2 == 0);
+                }
+            }
+            json.append("\n  ]");
+        }
+        return write(json.append("\n}\n").toString());
+    }
+
+    private static Map<String, List<StampedDetectedObjects>> parse(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, new TypeToken<HashMap<String, List<StampedDetectedObjects>>>() {
+            }.getType());
+        }
+    }
+
+    private static void assertSameFrame(StampedDetectedObjects expected, StampedDetectedObjects actual) {
+        assertEquals(expected.getTime(), actual.getTime());
+        assertEquals(expected.getDetectedObjects().size(), actual.getDetectedObjects().size());
+        for (int i = 0; i < expected.getDetectedObjects().size(); i++) {
+            assertEquals(expected.getDetectedObjects().get(i).getId(), actual.getDetectedObjects().get(i).getId());
+            assertEquals(expected.getDetectedObjects().get(i).getDescription(),
+                    actual.getDetectedObjects().get(i).getDescription());
+        }
+    }
+
+    @Test
+    void blocksReadBackTheFramesOfTheWholeFile() throws IOException {
+        Path file = cameraData();
+        Map<String, List<StampedDetectedObjects>> expected = parse(file);
+        for (int blockTicks : Arrays.asList(1, 3, 7, 100)) {
+            CameraDataIndex index = CameraDataIndex.build(file.toString(), blockTicks);
+            assertEquals(expected.keySet(), index.getCameraKeys());
+            for (Map.Entry<String, List<StampedDetectedObjects>> camera : expected.entrySet()) {
+                List<StampedDetectedObjects> frames = new ArrayList<>();
+                for (int block = index.blockOf(0); block <= index.blockOf(40); block++) {
+                    List<StampedDetectedObjects> blockFrames = index.loadBlock(camera.getKey(), block);
+                    assertEquals(!blockFrames.isEmpty(), index.hasBlock(camera.getKey(), block));
+                    for (StampedDetectedObjects frame : blockFrames) {
+                        assertEquals(block, index.blockOf(frame.getTime()));
+                    }
+                    frames.addAll(blockFrames);
+                }
+                assertEquals(camera.getValue().size(), frames.size(), camera.getKey());
+                for (int i = 0; i < frames.size(); i++) {
+                    assertSameFrame(camera.getValue().get(i), frames.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void pagedCameraHoldsOnlyTheBlocksAroundTheCurrentTick() throws IOException {
+        Path file = cameraData();
+        List<StampedDetectedObjects> expected = parse(file).get("camera1");
+        Camera inMemory = new Camera(1, 0, expected);
+        Camera paged = new Camera(1, 0, CameraDataIndex.build(file.toString(), 5), "camera1");
+        for (int time = 0; time <= 45; time++) {
+            StampedDetectedObjects frame = paged.getFrame(time);
+            if (inMemory.getFrame(time) == null) {
+                assertNull(frame, "frame at " + time);
+            } else {
+                assertSameFrame(inMemory.getFrame(time), frame);
+            }
+            paged.releaseFramesBefore(time);
+            assertTrue(paged.getLoadedBlockCount() <= 1, paged.getLoadedBlockCount() + " blocks at " + time);
+        }
+        // a released block is paged in again if asked for
+        assertSameFrame(inMemory.getFrame(1), paged.getFrame(1));
+        assertEquals(1, paged.getLoadedBlockCount());
+
+        Camera missing = new Camera(2, 0, CameraDataIndex.build(file.toString(), 5), "camera4");
+        assertNull(missing.getFrame(1));
+        assertEquals(0, missing.getLoadedBlockCount());
+    }
+
+    @Test
+    void indexRejectsFramesOutOfOrder() throws IOException {
+        StringBuilder json = new StringBuilder("{\"camera1\": [");
+        for (int time : Arrays.asList(1, 2, 9, 3)) {
+            json.append(time == 1 ? "" : ",");
+            frame(json, time, 1, true);
+        }
+        Path file = write(json.append("]}").toString());
+        IOException e = assertThrows(IOException.class, () -> CameraDataIndex.build(file.toString(), 4));
+        assertTrue(e.getMessage().contains("camera1"), e.getMessage());
+    }
+
+    @Test
+    void emptyFileHasNoCameras() throws IOException {
+        CameraDataIndex index = CameraDataIndex.build(write("{}").toString(), 10);
+        assertTrue(index.getCameraKeys().isEmpty());
+        assertFalse(index.hasBlock("camera1", 0));
+        assertEquals(Collections.emptyList(), index.loadBlock("camera1", 0));
+    }
+}
@@ -0,0 +1,164 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CheckpointLogTest {
+
+    @TempDir
+    Path dir;
+
+    // a participant holding a single counter
+    private static final class Counter implements Checkpointable {
+        private int value;
+
+        @Override
+        public String getCheckpointName() {
+            return "Counter";
+        }
+
+        @Override
+        public void writeCheckpoint(DataOutputStream out) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public void restoreCheckpoint(DataInputStream in) throws IOException {
+            value = in.readInt();
+        }
+    }
+
+    private static TrackedObject object(String id, int time, double x, double y) {
+        TrackedObject object = new TrackedObject(id, time, "Wall");
+        object.getPoints().add(new CloudPoint(x, y));
+        object.getPoints().add(new CloudPoint(x + 1, y));
+        return object;
+    }
+
+    // simulates ticks 1 and 2 with a checkpoint at the end of each, returns the file size after tick 1
+    private long writeTwoCheckpoints(Path file) throws IOException {
+        FusionSlam fusionSlam = new FusionSlam();
+        StatisticalFolder statistics = new StatisticalFolder();
+        Counter counter = new Counter();
+        long afterFirst;
+        try (CheckpointLog log = new CheckpointLog(file.toString(), 1, fusionSlam, statistics)) {
+            assertEquals(0, log.open(false));
+            log.register(counter);
+
+            fusionSlam.addPose(new Pose(1, 2, 90, 1));
+            fusionSlam.processTrackedObject(object("Wall_1", 1, 1, 0), fusionSlam.getPose(1));
+            fusionSlam.holdUntilPose(object("Wall_2", 3, 5, 5));
+            statistics.setSystemRuntime(1);
+            statistics.increaseNumLandmarks();
+            counter.value = 1;
+            log.capture(1);
+            log.close();
+            afterFirst = Files.size(file);
+        }
+        // tick 2 runs in a resumed process
+        FusionSlam resumedFusionSlam = new FusionSlam();
+        StatisticalFolder resumedStatistics = new StatisticalFolder();
+        Counter resumedCounter = new Counter();
+        try (CheckpointLog log = new CheckpointLog(file.toString(), 1, resumedFusionSlam, resumedStatistics)) {
+            assertEquals(1, log.open(true));
+            log.register(resumedCounter);
+            assertEquals(1, resumedCounter.value);
+            resumedFusionSlam.addPose(new Pose(3, 4, 0, 2));
+            resumedFusionSlam.processTrackedObject(object("Wall_1", 2, 2, 0), resumedFusionSlam.getPose(2));
+            resumedStatistics.setSystemRuntime(2);
+            resumedCounter.value = 2;
+            log.capture(2);
+        }
+        return afterFirst;
+    }
+
+    @Test
+    void resumeAppliesEveryCheckpoint() throws IOException {
+        Path file = dir.resolve("run.ckpt");
+        writeTwoCheckpoints(file);
+        FusionSlam fusionSlam = new FusionSlam();
+        StatisticalFolder statistics = new StatisticalFolder();
+        Counter counter = new Counter();
+        try (CheckpointLog log = new CheckpointLog(file.toString(), 1, fusionSlam, statistics)) {
+            assertEquals(2, log.open(true));
+            log.register(counter);
+        }
+        assertEquals(2, counter.value);
+        assertEquals(2, statistics.getSystemRuntime());
+        assertEquals(1, statistics.getNumLandmarks());
+        assertEquals(2, fusionSlam.getPoses().size());
+        assertEquals(1, fusionSlam.getPendingDepth());
+        LandMark wall = fusionSlam.getLandmark("Wall_1");
+        assertNotNull(wall);
+
+        FusionSlam uninterrupted = new FusionSlam();
+        uninterrupted.addPose(new Pose(1, 2, 90, 1));
+        uninterrupted.processTrackedObject(object("Wall_1", 1, 1, 0), uninterrupted.getPose(1));
+        uninterrupted.addPose(new Pose(3, 4, 0, 2));
+        uninterrupted.processTrackedObject(object("Wall_1", 2, 2, 0), uninterrupted.getPose(2));
+        assertEquals(uninterrupted.getLandmark("Wall_1").getPoints(), wall.getPoints());
+    }
+
+    @Test
+    void resumeDropsATruncatedRecord() throws IOException {
+        Path file = dir.resolve("run.ckpt");
+        long afterFirst = writeTwoCheckpoints(file);
+        long full = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(full - 3); // the second record is cut short by a crash
+        }
+        FusionSlam fusionSlam = new FusionSlam();
+        StatisticalFolder statistics = new StatisticalFolder();
+        Counter counter = new Counter();
+        try (CheckpointLog log = new CheckpointLog(file.toString(), 1, fusionSlam, statistics)) {
+            assertEquals(1, log.open(true));
+            assertEquals(afterFirst, Files.size(file), "the cut record was not dropped");
+            log.register(counter);
+        }
+        assertEquals(1, counter.value);
+        assertEquals(1, statistics.getSystemRuntime());
+        assertEquals(1, fusionSlam.getPoses().size());
+        assertNull(fusionSlam.getPose(2));
+        // the object held at tick 1 is still waiting for its pose
+        assertEquals(1, fusionSlam.getPendingDepth());
+    }
+
+    @Test
+    void resumeDropsACorruptedRecord() throws IOException {
+        Path file = dir.resolve("run.ckpt");
+        writeTwoCheckpoints(file);
+        long full = Files.size(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(full - 12); // the last byte of the second body
+            int b = raf.read();
+            raf.seek(full - 12);
+            raf.write(b ^ 0xFF);
+        }
+        FusionSlam fusionSlam = new FusionSlam();
+        try (CheckpointLog log = new CheckpointLog(file.toString(), 1, fusionSlam, new StatisticalFolder())) {
+            assertEquals(1, log.open(true));
+        }
+        assertEquals(1, fusionSlam.getPoses().size());
+    }
+
+    @Test
+    void resumeRejectsAFileThatIsNotACheckpointLog() throws IOException {
+        Path file = dir.resolve("other.bin");
+        Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9 });
+        CheckpointLog log = new CheckpointLog(file.toString(), 1, new FusionSlam(), new StatisticalFolder());
+        assertThrows(IOException.class, () -> log.open(true));
+        log.close();
+    }
+}
@@ -0,0 +1,156 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FusionSlamTest {
+
+    private static TrackedObject object(String id, int time, double x, double y) {
+        TrackedObject object = new TrackedObject(id, time, "Wall");
+        object.getPoints().add(new CloudPoint(x, y));
+        return object;
+    }
+
+    // the points of a wall in the charging station's coordinate system, two per grid cell of 0.5
+    // meters, away from the cell borders
+    private static List<CloudPoint> wall() {
+        List<CloudPoint> points = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 3; j++) {
+                points.add(new CloudPoint(i * 0.5 + 0.15, j * 0.5 + 0.3));
+                points.add(new CloudPoint(i * 0.5 + 0.35, j * 0.5 + 0.2));
+            }
+        }
+        return points;
+    }
+
+    // the wall as seen by the robot at a pose, the inverse of the transformation of FusionSlam
+    private static TrackedObject seenFrom(List<CloudPoint> global, Pose pose) {
+        double yaw = Math.toRadians(pose.getYaw());
+        TrackedObject object = new TrackedObject("Wall_1", pose.getTime(), "Wall");
+        for (CloudPoint p : global) {
+            double dx = p.getX() - pose.getX();
+            double dy = p.getY() - pose.getY();
+            object.getPoints().add(new CloudPoint(Math.cos(yaw) * dx + Math.sin(yaw) * dy,
+                    -Math.sin(yaw) * dx + Math.cos(yaw) * dy));
+        }
+        return object;
+    }
+
+    @Test
+    void downsampledObservationsFromDifferentPosesAverageTheSameCells() {
+        List<CloudPoint> wall = wall();
+        VoxelGrid grid = new VoxelGrid(0.5);
+        Set<Long> cells = new HashSet<>();
+        for (CloudPoint p : wall) {
+            cells.add(grid.cellOf(p));
+        }
+        List<CloudPoint> reversed = new ArrayList<>(wall);
+        Collections.reverse(reversed);
+        for (boolean bounded : new boolean[] { false, true }) {
+            FusionSlam fusionSlam = new FusionSlam();
+            fusionSlam.setBoundedRefinement(bounded);
+            fusionSlam.setVoxelSize(0.5);
+            // the robot turned and moved between the observations, which also list the points in another order
+            Pose first = new Pose(1, 2, 30, 1);
+            Pose second = new Pose(-3, 0.5f, -75, 2);
+            fusionSlam.processTrackedObject(seenFrom(wall, first), first);
+            fusionSlam.processTrackedObject(seenFrom(reversed, second), second);
+
+            List<CloudPoint> points = fusionSlam.getLandmark("Wall_1").getPoints();
+            assertEquals(cells.size(), points.size());
+            Set<Long> slotCells = new HashSet<>();
+            for (CloudPoint p : points) {
+                slotCells.add(grid.cellOf(p));
+            }
+            assertEquals(cells, slotCells);
+            assertTrue(VoxelGrid.distance(wall, points) <= grid.getTolerance(),
+                    "distance " + VoxelGrid.distance(wall, points));
+            // both observations have the same centroids, which the average keeps
+            List<CloudPoint> centroids = grid.downsample(wall);
+            for (int i = 0; i < centroids.size(); i++) {
+                assertEquals(centroids.get(i).getX(), points.get(i).getX(), 1e-9);
+                assertEquals(centroids.get(i).getY(), points.get(i).getY(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void gettersReturnCopiesUnaffectedByLaterUpdates() {
+        FusionSlam fusionSlam = new FusionSlam();
+        Pose pose = new Pose(0, 0, 0, 1);
+        fusionSlam.addPose(pose);
+        fusionSlam.processTrackedObject(object("Wall_1", 1, 2, 2), pose);
+        List<Pose> poses = fusionSlam.getPoses();
+        List<LandMark> landmarks = fusionSlam.getLandmarks();
+
+        fusionSlam.addPose(new Pose(1, 1, 0, 2));
+        fusionSlam.processTrackedObject(object("Wall_1", 1, 4, 4), pose);
+        fusionSlam.processTrackedObject(object("Wall_2", 1, 0, 0), pose);
+        poses.clear();
+
+        assertEquals(2, fusionSlam.getPoses().size());
+        assertEquals(1, landmarks.size());
+        assertEquals(new CloudPoint(2, 2), landmarks.get(0).getPoints().get(0));
+        assertEquals(new CloudPoint(3, 3), fusionSlam.getLandmark("Wall_1").getPoints().get(0));
+    }
+
+    @Test
+    void pendingObjectIsReleasedByThePoseOfItsTickOnly() {
+        FusionSlam fusionSlam = new FusionSlam();
+        assertTrue(fusionSlam.holdUntilPose(object("Wall_1", 3, 0, 0)));
+        assertTrue(fusionSlam.holdUntilPose(object("Wall_2", 3, 1, 1)));
+        assertTrue(fusionSlam.holdUntilPose(object("Wall_3", 4, 0, 0)));
+        assertEquals(3, fusionSlam.getPendingDepth());
+
+        // the poses of the ticks before release nothing
+        assertTrue(fusionSlam.addPose(new Pose(0, 0, 0, 1)).isEmpty());
+        assertTrue(fusionSlam.addPose(new Pose(0, 0, 0, 2)).isEmpty());
+        assertEquals(3, fusionSlam.getPendingDepth());
+        assertEquals(0, fusionSlam.getReleasedCount());
+
+        List<String> released = new ArrayList<>();
+        for (TrackedObject object : fusionSlam.addPose(new Pose(0, 0, 0, 3))) {
+            released.add(object.getId());
+        }
+        assertEquals(Arrays.asList("Wall_1", "Wall_2"), released);
+        assertEquals(1, fusionSlam.getPendingDepth());
+        assertEquals(2, fusionSlam.getReleasedCount());
+        assertEquals(3, fusionSlam.getMaxPendingDepth());
+        assertTrue(fusionSlam.getAveragePendingWaitMillis() >= 0);
+
+        // an object whose pose already arrived is not held
+        assertFalse(fusionSlam.holdUntilPose(object("Wall_4", 3, 0, 0)));
+        assertEquals(1, fusionSlam.addPose(new Pose(0, 0, 0, 4)).size());
+        assertEquals(0, fusionSlam.getPendingDepth());
+        assertEquals(3, fusionSlam.getReleasedCount());
+    }
+
+    @Test
+    void evictPendingDropsTheObjectsStillWaitingForAPose() {
+        FusionSlam fusionSlam = new FusionSlam();
+        assertTrue(fusionSlam.holdUntilPose(object("Wall_2", 5, 0, 0)));
+        assertTrue(fusionSlam.holdUntilPose(object("Wall_1", 3, 0, 0)));
+        fusionSlam.addPose(new Pose(0, 0, 0, 1));
+
+        List<String> evicted = new ArrayList<>();
+        for (TrackedObject object : fusionSlam.evictPending()) {
+            evicted.add(object.getId());
+        }
+        assertEquals(2, evicted.size());
+        assertEquals("Wall_1", evicted.get(0));
+        assertEquals(0, fusionSlam.getPendingDepth());
+        assertTrue(fusionSlam.addPose(new Pose(0, 0, 0, 5)).isEmpty());
+        assertFalse(fusionSlam.holdUntilPose(object("Wall_3", 5, 0, 0)));
+    }
+}
@@ -0,0 +1,163 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LandMarkIndexTest {
+
+    private static LandMark landMark(String id, double... coordinates) {
+        LandMark landMark = new LandMark(id, "Wall");
+        for (int i = 0; i < coordinates.length; i += 2) {
+            landMark.getPoints().add(new CloudPoint(coordinates[i], coordinates[i + 1]));
+        }
+        return landMark;
+    }
+
+    private static double distance(LandMark landMark, double x, double y) {
+        double best = Double.POSITIVE_INFINITY;
+        for (CloudPoint p : landMark.getPoints()) {
+            best = Math.min(best, Math.hypot(p.getX() - x, p.getY() - y));
+        }
+        return best;
+    }
+
+    private static List<String> ids(List<LandMarkIndex.Neighbor> neighbors) {
+        List<String> ids = new ArrayList<>();
+        for (LandMarkIndex.Neighbor n : neighbors) {
+            ids.add(n.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    void nearestExpandsRingsUntilNothingCloserIsLeft() {
+        Random random = new Random(7);
+        LandMarkIndex index = new LandMarkIndex(1.0);
+        List<LandMark> landMarks = new ArrayList<>();
+        // a cluster near the origin and a few landmarks many rings away
+        for (int i = 0; i < 40; i++) {
+            double spread = i < 30 ? 3 : 40;
+            double x = random.nextDouble() * 2 * spread - spread;
+            double y = random.nextDouble() * 2 * spread - spread;
+            landMarks.add(landMark("L" + i, x, y, x + random.nextDouble() * 2, y + random.nextDouble()));
+            index.update(landMarks.get(i));
+        }
+        for (int query = 0; query < 200; query++) {
+            double x = random.nextDouble() * 100 - 50;
+            double y = random.nextDouble() * 100 - 50;
+            List<LandMark> sorted = new ArrayList<>(landMarks);
+            Collections.sort(sorted, (a, b) -> Double.compare(distance(a, x, y), distance(b, x, y)));
+            for (int k : Arrays.asList(1, 3, 10)) {
+                List<LandMarkIndex.Neighbor> nearest = index.nearest(x, y, k);
+                assertEquals(k, nearest.size());
+                for (int i = 0; i < k; i++) {
+                    assertEquals(distance(sorted.get(i), x, y), nearest.get(i).getDistance(), 1e-12,
+                            "neighbor " + i + " of " + k + " at " + x + ", " + y);
+                }
+            }
+        }
+        assertEquals(40, index.nearest(0, 0, 100).size());
+        assertTrue(index.nearest(0, 0, 0).isEmpty());
+        assertTrue(new LandMarkIndex(1.0).nearest(0, 0, 1).isEmpty());
+    }
+
+    @Test
+    void withinRadiusFindsPointsOnCellBoundaries() {
+        LandMarkIndex index = new LandMarkIndex(1.0);
+        index.update(landMark("Edge", 2.0, 0.5)); // on the border of cells 1 and 2
+        index.update(landMark("Negative", -1.0, -1.0)); // on the corner of four cells
+        index.update(landMark("Beyond", 2.0 + 1e-9, 1.5));
+        index.update(landMark("Spanning", -3.5, 0.5, 5.5, 0.5)); // stored in the cells from -4 to 5
+
+        // a radius reaching exactly to a cell border
+        assertEquals(Arrays.asList("Edge"), ids(index.withinRadius(1.0, 0.5, 1.0)));
+        assertEquals(Arrays.asList("Edge"), ids(index.withinRadius(3.0, 0.5, 1.0)));
+        assertEquals(Arrays.asList("Negative"), ids(index.withinRadius(0.0, -1.0, 1.0)));
+        assertEquals(Arrays.asList("Negative"), ids(index.withinRadius(-1.0, 0.0, 1.0)));
+        assertTrue(index.withinRadius(-1.0, 0.0, 1.0 - 1e-9).isEmpty());
+        // a landmark is found through any cell its bounds overlap, closest first
+        assertEquals(Arrays.asList("Spanning", "Edge"), ids(index.withinRadius(5.5, 0.5, 3.5)));
+        assertEquals(Arrays.asList("Beyond", "Edge"), ids(index.withinRadius(2.0, 1.5, 1.0)));
+    }
+
+    @Test
+    void movedLandmarksLeaveNoEmptyCells() {
+        LandMarkIndex index = new LandMarkIndex(1.0);
+        LandMark wall = landMark("Wall", 0.5, 0.5, 2.5, 0.5);
+        index.update(wall);
+        assertEquals(3, index.getCellCount());
+        index.update(landMark("Door", 0.5, 0.5));
+        wall.getPoints().clear();
+        wall.getPoints().add(new CloudPoint(10.5, 10.5));
+        index.update(wall);
+        // the first cell still holds the door, the other two were emptied
+        assertEquals(2, index.getCellCount());
+        assertEquals(Arrays.asList("Door"), ids(index.withinRadius(1.5, 0.5, 1.5)));
+        assertEquals(Arrays.asList("Wall"), ids(index.nearest(11, 11, 1)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void queriesSeeWholeSnapshotsWhileALandmarkIsUpdated() throws InterruptedException {
+        LandMarkIndex index = new LandMarkIndex(1.0);
+        LandMark wall = landMark("Wall", 0, 0);
+        index.update(wall);
+        index.update(landMark("Door", 4, 3));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                Random random = new Random();
+                while (!done.get() && failure.get() == null) {
+                    List<LandMarkIndex.Neighbor> found = random.nextBoolean() ? index.nearest(4, 3, 2)
+                            : index.withinRadius(4, 3, 20);
+                    // the door does not move, the wall may be missed while it moves to other cells
+                    if (!ids(found).contains("Door") || found.size() > 2) {
+                        failure.set("found " + ids(found));
+                        return;
+                    }
+                    for (LandMarkIndex.Neighbor n : found) {
+                        // every version of the wall puts all its points at the same x
+                        List<CloudPoint> points = n.getPoints();
+                        for (CloudPoint p : points) {
+                            if (p.getX() != points.get(0).getX()) {
+                                failure.set("half updated points " + points);
+                                return;
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (int version = 1; version <= 20000 && failure.get() == null; version++) {
+            // moves the wall back and forth across cells, with a changing number of points
+            double x = version % 9;
+            wall.getPoints().clear();
+            for (int i = 0; i <= version % 5; i++) {
+                wall.getPoints().add(new CloudPoint(x, i * 0.7));
+            }
+            index.update(wall);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(2, index.size());
+    }
+}
@@ -0,0 +1,61 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LandMarkTest {
+
+    @Test
+    void refineAveragesEachSlotWithTheNewObservation() {
+        LandMark landMark = new LandMark("Wall_1", "Wall");
+        landMark.refine(Arrays.asList(new CloudPoint(0, 0), new CloudPoint(4, 4)));
+        landMark.refine(Arrays.asList(new CloudPoint(2, 2)));
+        landMark.refine(Arrays.asList(new CloudPoint(3, 3), new CloudPoint(0, 0), new CloudPoint(7, 8)));
+        assertEquals(Arrays.asList(new CloudPoint(2, 2), new CloudPoint(2, 2), new CloudPoint(7, 8)),
+                landMark.getPoints());
+    }
+
+    @Test
+    void boundedModeKeepsTheMeanOfEverySlot() {
+        Random random = new Random(42);
+        LandMark unbounded = new LandMark("Wall_1", "Wall", false);
+        LandMark bounded = new LandMark("Wall_1", "Wall", true);
+        List<double[]> sums = new ArrayList<>(); // {x, y, count} of every slot
+        for (int observation = 0; observation < 1000; observation++) {
+            List<CloudPoint> observed = new ArrayList<>();
+            int size = 1 + random.nextInt(8);
+            for (int i = 0; i < size; i++) {
+                observed.add(new CloudPoint(random.nextGaussian() * 100, random.nextGaussian() * 100));
+                if (i == sums.size()) {
+                    sums.add(new double[3]);
+                }
+                sums.get(i)[0] += observed.get(i).getX();
+                sums.get(i)[1] += observed.get(i).getY();
+                sums.get(i)[2]++;
+            }
+            bounded.refine(observed);
+            if (observation < 2) {
+                // a slot observed at most twice holds the same point in both modes
+                unbounded.refine(observed);
+                assertEquals(unbounded.getPoints(), bounded.getPoints());
+            }
+        }
+        List<CloudPoint> points = bounded.getPoints();
+        assertEquals(sums.size(), points.size());
+        for (int i = 0; i < points.size(); i++) {
+            assertEquals(sums.get(i)[0] / sums.get(i)[2], points.get(i).getX());
+            assertEquals(sums.get(i)[1] / sums.get(i)[2], points.get(i).getY());
+        }
+        // the points are built on demand, changing them leaves the landmark as it was
+        points.get(0).setPoint(1e9, 1e9);
+        points.clear();
+        assertEquals(sums.get(0)[0] / sums.get(0)[2], bounded.getPoints().get(0).getX());
+        assertEquals(sums.size(), bounded.getPoints().size());
+    }
+}
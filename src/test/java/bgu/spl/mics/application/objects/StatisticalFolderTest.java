@@ -0,0 +1,45 @@
+package bgu.spl.mics.application.objects;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StatisticalFolderTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void fullHistoryOverwritesItsOldestSnapshots() throws IOException {
+        StatisticalFolder statistics = new StatisticalFolder(3);
+        for (int tick = 1; tick <= 5; tick++) {
+            statistics.increaseNumDetectedObjects(2);
+            statistics.increaseNumTrackedObjects();
+            if (tick % 2 == 0) {
+                statistics.increaseNumLandmarks();
+            }
+            statistics.recordTick(tick);
+            assertEquals(Math.min(tick, 3), statistics.getHistorySize());
+        }
+        // ticks 1 and 2 were overwritten, the oldest kept snapshot comes first
+        assertArrayEquals(new long[] { 3, 6, 3, 1 }, statistics.getHistoryEntry(0));
+        assertArrayEquals(new long[] { 4, 8, 4, 2 }, statistics.getHistoryEntry(1));
+        assertArrayEquals(new long[] { 5, 10, 5, 2 }, statistics.getHistoryEntry(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> statistics.getHistoryEntry(3));
+
+        Path file = dir.resolve("history.csv");
+        statistics.writeHistory(file.toString());
+        List<String> expected = Arrays.asList("tick,numDetectedObjects,numTrackedObjects,numLandmarks", "3,6,3,1",
+                "4,8,4,2", "5,10,5,2");
+        assertEquals(expected, Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+}
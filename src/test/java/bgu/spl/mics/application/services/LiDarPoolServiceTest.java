@@ -0,0 +1,118 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.Future;
+import bgu.spl.mics.MessageBusImpl;
+import bgu.spl.mics.application.messages.DetectObjectsEvent;
+import bgu.spl.mics.application.messages.TerminatedBroadcast;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.DetectedObject;
+import bgu.spl.mics.application.objects.LiDarDataBase;
+import bgu.spl.mics.application.objects.LiDarWorkerTracker;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StampedDetectedObjects;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LiDarPoolServiceTest {
+    @TempDir
+    Path dir;
+
+    // a LiDAR data file with the cloud points of object "A" at times 0 to 2
+    private Path lidarData() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int time = 0; time <= 2; time++) {
+            json.append(time == 0 ? "" : ",").append("{\"time\":").append(time)
+                    .append(",\"id\":\"A\",\"cloudPoints\":[[1.0,2.0,0.1],[1.5,2.5,0.1]]}");
+        }
+        Path file = dir.resolve("lidar_data.json");
+        Files.write(file, Collections.singletonList(json.append("]").toString()), StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static List<Future<Boolean>> detect(MessageBusImpl bus, int time, int count)
+            throws InterruptedException {
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StampedDetectedObjects frame = new StampedDetectedObjects(time);
+            frame.getDetectedObjects().add(new DetectedObject("A", "object"));
+            futures.add(bus.sendEvent(new DetectObjectsEvent(frame)));
+        }
+        bus.awaitQuiescence(null);
+        return futures;
+    }
+
+    private static void tick(MessageBusImpl bus, int tick) throws InterruptedException {
+        bus.sendBroadcast(new TickBroadcast(tick));
+        bus.awaitQuiescence(null);
+    }
+
+    @Test
+    void poolScalesWithTheBacklogAndTracksEveryDetection() throws Exception {
+        SimulationContext context = new SimulationContext("pool");
+        StatisticalFolder statistics = context.getStatistics();
+        String data = lidarData().toString();
+        context.call(() -> {
+            MessageBusImpl bus = MessageBusImpl.getInstance();
+            LiDarDataBase database = LiDarDataBase.getInstance(data);
+            LiDarService base = new LiDarService(new LiDarWorkerTracker(1, 1), database, statistics);
+            LiDarPoolService pool = new LiDarPoolService(Collections.singletonList(base), 1, 5, 1, 2, database, statistics);
+            List<Thread> threads = new ArrayList<>();
+            threads.add(new Thread(base));
+            threads.add(new Thread(pool));
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            assertTrue(context.awaitInitializedServices(2, 10, TimeUnit.SECONDS));
+
+            // 20 detections wait for the frequency of the single worker, the pool scales up
+            List<Future<Boolean>> futures = detect(bus, 1, 20);
+            assertEquals(20, base.getBacklog());
+            tick(bus, 1);
+            assertEquals(1, statistics.getLiDarScaleUps());
+            assertEquals(2, statistics.getLiDarPoolSize());
+
+            // the extra worker started at tick 1, so it tracks its share of these at once
+            futures.addAll(detect(bus, 0, 10));
+            assertEquals(10, statistics.getNumTrackedObjects());
+            assertEquals(20, base.getBacklog());
+
+            tick(bus, 2);
+            assertEquals(30, statistics.getNumTrackedObjects());
+            tick(bus, 3);
+            tick(bus, 4);
+            assertEquals(1, statistics.getLiDarScaleDowns());
+            assertEquals(1, statistics.getLiDarPoolSize());
+
+            // the detections sent after the retirement are still tracked
+            futures.addAll(detect(bus, 2, 10));
+            tick(bus, 5);
+            assertEquals(40, statistics.getNumTrackedObjects());
+            for (Future<Boolean> future : futures) {
+                assertTrue(future.get(10, TimeUnit.SECONDS));
+            }
+
+            bus.sendBroadcast(new TerminatedBroadcast(5));
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            // the retired worker is still reported, with the objects it tracked last
+            assertEquals(1, pool.getExtraWorkers().size());
+            assertEquals(2, pool.getExtraWorkers().get(0).getId());
+            assertTrue(pool.getExtraWorkers().get(0).getLastTrackedObjects() != null);
+            return null;
+        });
+    }
+}
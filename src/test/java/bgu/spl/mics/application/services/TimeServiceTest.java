@@ -0,0 +1,49 @@
+package bgu.spl.mics.application.services;
+
+import bgu.spl.mics.MicroService;
+import bgu.spl.mics.application.messages.TickBroadcast;
+import bgu.spl.mics.application.objects.SimulationContext;
+import bgu.spl.mics.application.objects.StatisticalFolder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TimeServiceTest {
+
+    @Test
+    void systemRuntimeIsTheCurrentTick() throws Exception {
+        SimulationContext context = new SimulationContext("time");
+        StatisticalFolder statistics = context.getStatistics();
+        List<Integer> seen = new ArrayList<>(); // the system runtime seen at every tick
+        CountDownLatch subscribed = new CountDownLatch(1);
+        context.call(() -> {
+            MicroService listener = new MicroService("Listener") {
+                @Override
+                protected void initialize() {
+                    subscribeBroadcast(TickBroadcast.class, tick -> {
+                        seen.add(statistics.getSystemRuntime());
+                        if (tick.getTick() == 5) {
+                            terminate();
+                        }
+                    });
+                    subscribed.countDown();
+                }
+            };
+            Thread listenerThread = new Thread(listener);
+            listenerThread.start();
+            subscribed.await();
+            Thread timeThread = new Thread(new TimeService(0, 5, 2, null));
+            timeThread.start();
+            timeThread.join();
+            listenerThread.join();
+            return null;
+        });
+        assertEquals(Arrays.asList(3, 4, 5), seen);
+        assertEquals(5, statistics.getSystemRuntime());
+    }
+}